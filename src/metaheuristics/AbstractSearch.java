@@ -0,0 +1,258 @@
+package metaheuristics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Abstract class for the stop criteria shared by the metaheuristics, other
+ * than their budget of iterations: a time limit, a cancellation from another
+ * thread, and a lower bound of the objective function, computed in
+ * background, which stops the search as soon as the best solution is proved
+ * optimal within a tolerance. A search checks them by {@link #checkStop(long)}
+ * and reports the criterion met.
+ *
+ * @author ccavellucci, fusberti
+ */
+public abstract class AbstractSearch {
+
+	/**
+	 * the computation of a lower bound of the objective function, or null if
+	 * no bound is used.
+	 */
+	protected Callable<Double> boundComputation;
+
+	/**
+	 * the executor which runs the lower bound computation, by default a new
+	 * daemon thread per search.
+	 */
+	protected Executor boundExecutor;
+
+	/**
+	 * the lower bound of the objective function, which is negative infinity
+	 * until the bound computation finishes.
+	 */
+	protected volatile double lowerBound = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * the search stops as soon as the best solution cost is within this
+	 * tolerance of the lower bound.
+	 */
+	protected Double tolerance = 0.0;
+
+	/**
+	 * the time limit of a search, in milliseconds, or null if the search is
+	 * only limited by its number of iterations.
+	 */
+	protected Long timeLimit;
+
+	/**
+	 * set by {@link #cancel()} to stop the search.
+	 */
+	protected volatile boolean cancelled;
+
+	/**
+	 * the number of times the lower bound was invalidated, so that a bound
+	 * computed over an outdated objective function is discarded.
+	 */
+	private int boundGeneration;
+
+	/**
+	 * completed when the last bound computation started finishes, or null if
+	 * none was started.
+	 */
+	private volatile CompletableFuture<Double> boundResult;
+
+	/**
+	 * Constructor for the AbstractSearch class.
+	 *
+	 * @param name
+	 *            The short name of the metaheuristic, which prefixes the name
+	 *            of the threads computing the lower bound.
+	 */
+	protected AbstractSearch(String name) {
+		this.boundExecutor = r -> {
+			Thread t = new Thread(r, name + "-bound");
+			t.setDaemon(true);
+			t.start();
+		};
+	}
+
+	/**
+	 * Gives the cost of the best solution of the current search.
+	 *
+	 * @return The best solution cost.
+	 */
+	protected abstract double getBestCost();
+
+	/**
+	 * Limits the time of each search, in addition to its number of
+	 * iterations.
+	 *
+	 * @param millis
+	 *            The time limit in milliseconds, or null for no limit.
+	 */
+	public void setTimeLimit(Long millis) {
+		this.timeLimit = millis;
+	}
+
+	/**
+	 * Sets a lower bound computation, which is run once in background when
+	 * the search starts. The search stops as soon as the best solution cost
+	 * is within the tolerance of the bound.
+	 *
+	 * @param computation
+	 *            The computation of a lower bound of the objective function.
+	 * @param tolerance
+	 *            The absolute optimality tolerance.
+	 */
+	public void setLowerBound(Callable<Double> computation, Double tolerance) {
+		this.boundComputation = computation;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Sets the executor which runs the lower bound computation when a search
+	 * starts. A solver which already knows the bound, e.g. from a cache, can
+	 * run a computation which only looks it up in the thread starting the
+	 * search, by the executor Runnable::run, so that no thread is created.
+	 *
+	 * @param executor
+	 *            The executor of the lower bound computation.
+	 */
+	public void setBoundExecutor(Executor executor) {
+		this.boundExecutor = executor;
+	}
+
+	/**
+	 * Stops the search running in another thread within a few iterations.
+	 * The best solution found up to then is still returned by the search.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Gives the optimality gap of the best solution, i.e., the difference
+	 * between its cost and the lower bound.
+	 *
+	 * @return The gap, or NaN if the bound is not known (yet).
+	 */
+	public double getGap() {
+		return (lowerBound > Double.NEGATIVE_INFINITY) ? getBestCost() - lowerBound : Double.NaN;
+	}
+
+	/**
+	 * Gives the lower bound of the objective function, in the space of the
+	 * costs returned by the search. Subclasses which search a transformed
+	 * objective function convert the bound here.
+	 *
+	 * @return The lower bound, or negative infinity if it is not known (yet).
+	 */
+	public Double getLowerBound() {
+		return lowerBound;
+	}
+
+	/**
+	 * Waits for the lower bound computation started by the last search, so
+	 * that a report can include the optimality gap.
+	 *
+	 * @param millis
+	 *            The maximum time to wait, in milliseconds.
+	 * @return The lower bound, or negative infinity if it is still not known.
+	 */
+	public Double awaitLowerBound(Long millis) {
+
+		CompletableFuture<Double> result = boundResult;
+		if (result != null) {
+			try {
+				result.get(millis, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException | ExecutionException e) {
+				/* the bound stays unknown */
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return getLowerBound();
+	}
+
+	/**
+	 * Starts the lower bound computation in the {@link #boundExecutor},
+	 * discarding the bound of the previous search.
+	 */
+	protected void startBoundComputation() {
+
+		int generation = invalidateLowerBound();
+		if (boundComputation == null) {
+			boundResult = null;
+			return;
+		}
+		CompletableFuture<Double> result = new CompletableFuture<Double>();
+		boundResult = result;
+		boundExecutor.execute(() -> {
+			try {
+				double bound = boundComputation.call();
+				synchronized (this) {
+					if (generation == boundGeneration)
+						lowerBound = bound;
+				}
+				result.complete(bound);
+			} catch (Exception e) {
+				System.err.println("Lower bound computation failed: " + e.getMessage());
+				result.completeExceptionally(e);
+			}
+		});
+
+	}
+
+	/**
+	 * Discards the lower bound, which no longer holds after a change of the
+	 * objective function, as well as any bound still being computed.
+	 *
+	 * @return The new generation of the lower bound.
+	 */
+	protected synchronized int invalidateLowerBound() {
+
+		lowerBound = Double.NEGATIVE_INFINITY;
+
+		return ++boundGeneration;
+	}
+
+	/**
+	 * Gives the deadline of a search starting now, from the
+	 * {@link #timeLimit}.
+	 *
+	 * @return The deadline, in the time of {@link System#nanoTime()}.
+	 */
+	protected long getDeadline() {
+		return (timeLimit != null) ? System.nanoTime() + timeLimit * 1000000L : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Checks the stop criteria other than the number of iterations: the best
+	 * solution being proved optimal within the tolerance, the deadline, and
+	 * the cancellation. Nothing is allocated unless a criterion is met.
+	 *
+	 * @param deadline
+	 *            The deadline of the search (see {@link #getDeadline()}).
+	 * @return The report of the criterion met, or null to continue the
+	 *         search.
+	 */
+	protected String checkStop(long deadline) {
+
+		double gap = getGap();
+		if (!Double.isNaN(gap) && gap <= tolerance)
+			return "Optimal within tolerance, LowerBound = " + getLowerBound();
+		if (System.nanoTime() >= deadline)
+			return "Time limit reached";
+		if (cancelled)
+			return "Cancelled";
+
+		return null;
+	}
+
+}
@@ -0,0 +1,421 @@
+package metaheuristics.simulatedannealing;
+
+import metaheuristics.AbstractSearch;
+import problems.Evaluator;
+import problems.IntEvaluator;
+import solutions.Solution;
+
+/**
+ * Abstract class for metaheuristic SA (Simulated Annealing) over problems
+ * whose solutions are subsets of integer indices, i.e., binary decision
+ * variables. It considers a minimization problem. Each move is drawn at
+ * random, either a flip of one element or an exchange of a selected element
+ * with an unselected one, and its cost variation is given in O(1) by an
+ * {@link IntEvaluator}. A worsening move of variation delta is accepted with
+ * probability exp(-delta/T).
+ *
+ * The temperature T is adaptive: it starts so that a worsening move of the
+ * mean magnitude is accepted with probability one half, and after every
+ * epoch of moves it is lowered if the rate of accepted moves is above a
+ * target rate, and raised otherwise. The target decreases geometrically
+ * from {@link #INITIAL_ACCEPTANCE} to {@link #FINAL_ACCEPTANCE} along the
+ * budget of moves or time, so that the schedule fits whichever budget is
+ * set.
+ *
+ * A move does not allocate memory: the random numbers are drawn from an
+ * inline xorshift generator, the selected and unselected elements are kept
+ * in an array of positions, and the best solution is only copied when the
+ * search is about to leave it.
+ *
+ * @author ccavellucci, fusberti
+ */
+public abstract class AbstractSA extends AbstractSearch {
+
+	/**
+	 * flag that indicates whether the code should print more information on
+	 * screen
+	 */
+	public static boolean verbose = true;
+
+	/**
+	 * The target rate of accepted moves at the start and at the end of the
+	 * search.
+	 */
+	public static final double INITIAL_ACCEPTANCE = 0.5, FINAL_ACCEPTANCE = 1e-4;
+
+	/**
+	 * The factor by which the temperature is changed after an epoch.
+	 */
+	public static final double COOLING = 0.9;
+
+	/**
+	 * The stop criteria other than the number of moves are checked every
+	 * CHECK_MASK + 1 moves.
+	 */
+	private static final int CHECK_MASK = 1023;
+
+	/**
+	 * the objective function being optimized
+	 */
+	protected Evaluator<Integer> ObjFunction;
+
+	/**
+	 * the incremental evaluator, which keeps the current solution.
+	 */
+	protected IntEvaluator evaluator;
+
+	/**
+	 * the number of moves which the SA will draw.
+	 */
+	protected Long iterations;
+
+	/**
+	 * the number of moves drawn so far.
+	 */
+	protected long currentIteration;
+
+	/**
+	 * the number of moves of an epoch, after which the temperature is
+	 * adapted.
+	 */
+	protected int epochLength;
+
+	/**
+	 * the probability of drawing an exchange instead of a flip, when both
+	 * selected and unselected elements exist.
+	 */
+	protected double exchangeRate = 0.5;
+
+	/**
+	 * the current temperature.
+	 */
+	protected double temperature;
+
+	/**
+	 * the state of the xorshift random number generator, never zero.
+	 */
+	protected long rngState = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * the elements, the selected ones first, and the position of each
+	 * element in this array.
+	 */
+	protected int[] members, position;
+
+	/**
+	 * buffer of the random order in which {@link #heat()} visits the
+	 * elements.
+	 */
+	private int[] order;
+
+	/**
+	 * the best solution cost.
+	 */
+	protected double bestValue;
+
+	/**
+	 * the best solution, as the selection state of each element.
+	 */
+	protected boolean[] bestX;
+
+	/**
+	 * whether the current solution is the best one and was not copied to
+	 * {@link #bestX} yet.
+	 */
+	protected boolean bestPending;
+
+	/**
+	 * the best solution, built when the search ends.
+	 */
+	protected Solution<Integer> bestSol;
+
+	/**
+	 * Creates a new solution which is empty, i.e., does not contain any
+	 * element.
+	 *
+	 * @return An empty solution.
+	 */
+	public abstract Solution<Integer> createEmptySol();
+
+	/**
+	 * Constructor for the AbstractSA class.
+	 *
+	 * @param objFunction
+	 *            The objective function being minimized.
+	 * @param evaluator
+	 *            The incremental evaluator of the same objective function.
+	 * @param iterations
+	 *            The number of moves which the SA will draw.
+	 */
+	public AbstractSA(Evaluator<Integer> objFunction, IntEvaluator evaluator, Long iterations) {
+		super("sa");
+		this.ObjFunction = objFunction;
+		this.evaluator = evaluator;
+		this.iterations = iterations;
+		this.epochLength = Math.max(16 * evaluator.getDomainSize(), 1 << 14);
+	}
+
+	/**
+	 * The SA mainframe. The evaluator is heated by a random pass over the
+	 * elements (see {@link #heat()}), which also sets the initial
+	 * temperature, and then moves are drawn until one of the stop criteria
+	 * is met: the number of moves, the time limit, the best solution being
+	 * proved optimal by the lower bound, or a cancellation.
+	 *
+	 * @return The best solution found.
+	 */
+	public Solution<Integer> solve() {
+
+		int n = evaluator.getDomainSize();
+		long startTime = System.nanoTime();
+		long deadline = getDeadline();
+		cancelled = false;
+		/* the objective function does not change, so its bound is computed once */
+		if (lowerBound == Double.NEGATIVE_INFINITY)
+			startBoundComputation();
+
+		bestSol = createEmptySol();
+		bestValue = bestSol.cost;
+		bestX = new boolean[n];
+		bestPending = false;
+		members = new int[n];
+		position = new int[n];
+		order = new int[n];
+		evaluator.reset();
+		for (int i = 0; i < n; i++) {
+			members[i] = i;
+			position[i] = i;
+		}
+		heat();
+
+		double cost = evaluator.getCost();
+		long epochAccepted = 0, improvedEpoch = -1, reportedEpoch = -1;
+		/* with no element (e.g. all fixed by a preprocessing) there is no move */
+		for (currentIteration = 0; n > 0 && currentIteration < iterations; currentIteration++) {
+
+			int count = evaluator.getSelectedCount();
+			int in = -1, out = -1;
+			double delta;
+			if (count > 0 && count < n && nextDouble() < exchangeRate) {
+				out = members[nextInt(count)];
+				in = members[count + nextInt(n - count)];
+				delta = evaluator.evaluateExchangeCost(in, out);
+			} else {
+				int elem = nextInt(n);
+				if (evaluator.isSelected(elem)) {
+					out = elem;
+					delta = evaluator.evaluateRemovalCost(elem);
+				} else {
+					in = elem;
+					delta = evaluator.evaluateInsertionCost(elem);
+				}
+			}
+
+			if (delta <= 0 || (delta < 40 * temperature && nextDouble() < Math.exp(-delta / temperature))) {
+				if (delta > 0 && bestPending)
+					saveBest();
+				if (out >= 0)
+					flip(out);
+				if (in >= 0)
+					flip(in);
+				cost = evaluator.getCost();
+				epochAccepted++;
+				if (cost < bestValue) {
+					bestValue = cost;
+					bestPending = true;
+					improvedEpoch = currentIteration / epochLength;
+				}
+			}
+
+			if ((currentIteration + 1) % epochLength == 0) {
+				long epoch = currentIteration / epochLength;
+				if (verbose && improvedEpoch == epoch && reportedEpoch < epoch) {
+					reportedEpoch = epoch;
+					System.out.println("(Iter. " + currentIteration + ") BestVal = " + bestValue + ", T = "
+							+ temperature);
+				}
+				double progress = Math.max((double) (currentIteration + 1) / iterations,
+						(double) (System.nanoTime() - startTime) / (deadline - startTime));
+				updateTemperature((double) epochAccepted / epochLength, Math.min(1.0, progress));
+				epochAccepted = 0;
+			}
+
+			if ((currentIteration & CHECK_MASK) == CHECK_MASK) {
+				String stop = checkStop(deadline);
+				if (stop != null) {
+					if (verbose)
+						System.out.println("(Iter. " + currentIteration + ") " + stop);
+					break;
+				}
+			}
+		}
+		if (bestPending)
+			saveBest();
+		if (verbose)
+			System.out.println("Moves = " + currentIteration + " (" + (long) (currentIteration
+					/ ((System.nanoTime() - startTime) / 1e9)) + " per second)");
+
+		bestSol = toSolution(bestX, bestValue);
+
+		return bestSol;
+	}
+
+	/**
+	 * Visits every element once, in a random order drawn by a Fisher-Yates
+	 * shuffle, and flips each one with probability one half, so that the
+	 * search starts from a random solution. The initial temperature is set
+	 * from the mean magnitude of the cost variations of the visited flips.
+	 * The best solution is not updated during the walk.
+	 */
+	protected void heat() {
+
+		int n = evaluator.getDomainSize();
+		for (int k = 0; k < n; k++)
+			order[k] = k;
+		for (int k = n - 1; k > 0; k--) {
+			int r = nextInt(k + 1), t = order[k];
+			order[k] = order[r];
+			order[r] = t;
+		}
+		double sum = 0.0;
+		for (int k = 0; k < n; k++) {
+			int elem = order[k];
+			double delta = evaluator.isSelected(elem) ? evaluator.evaluateRemovalCost(elem)
+					: evaluator.evaluateInsertionCost(elem);
+			sum += Math.abs(delta);
+			if (nextDouble() < 0.5)
+				flip(elem);
+		}
+		double mean = (n > 0) ? sum / n : 1.0;
+		temperature = (mean > 0) ? mean / Math.log(1 / INITIAL_ACCEPTANCE) : 1.0;
+
+	}
+
+	/**
+	 * Adapts the temperature after an epoch, comparing the rate of accepted
+	 * moves with the target rate for the progress of the search.
+	 *
+	 * @param acceptance
+	 *            The rate of accepted moves in the epoch.
+	 * @param progress
+	 *            The fraction of the budget of moves or time used.
+	 */
+	protected void updateTemperature(double acceptance, double progress) {
+
+		double target = INITIAL_ACCEPTANCE * Math.pow(FINAL_ACCEPTANCE / INITIAL_ACCEPTANCE, progress);
+		if (acceptance > target)
+			temperature *= COOLING;
+		else
+			temperature /= COOLING;
+
+	}
+
+	/**
+	 * Flips an element in the evaluator, keeping the selected elements at
+	 * the front of {@link #members}.
+	 *
+	 * @param elem
+	 *            The element.
+	 */
+	protected void flip(int elem) {
+
+		int count = evaluator.getSelectedCount();
+		int other = evaluator.isSelected(elem) ? count - 1 : count;
+		int p = position[elem], q = members[other];
+		members[p] = q;
+		position[q] = p;
+		members[other] = elem;
+		position[elem] = other;
+		evaluator.flip(elem);
+
+	}
+
+	/**
+	 * Copies the current solution, which is the best one, to {@link #bestX}.
+	 */
+	protected void saveBest() {
+		for (int i = 0; i < bestX.length; i++)
+			bestX[i] = evaluator.isSelected(i);
+		bestPending = false;
+	}
+
+	/**
+	 * Creates a solution from the selection state of the elements.
+	 *
+	 * @param x
+	 *            The selection state of each element.
+	 * @param cost
+	 *            The cost of the solution.
+	 * @return A new solution.
+	 */
+	protected Solution<Integer> toSolution(boolean[] x, double cost) {
+
+		Solution<Integer> sol = new Solution<Integer>();
+		for (int i = 0; i < x.length; i++) {
+			if (x[i])
+				sol.add(i);
+		}
+		sol.cost = cost;
+
+		return sol;
+	}
+
+	/**
+	 * Draws the next random number of the xorshift64* generator.
+	 *
+	 * @return A uniformly distributed long.
+	 */
+	protected final long nextLong() {
+		long x = rngState;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		rngState = x;
+		return x * 0x2545F4914F6CDD1DL;
+	}
+
+	/**
+	 * Draws a random integer in [0, bound), by multiplication instead of
+	 * division.
+	 *
+	 * @param bound
+	 *            The upper bound, which must be positive.
+	 * @return A uniformly distributed integer.
+	 */
+	protected final int nextInt(int bound) {
+		return (int) (((nextLong() >>> 32) * bound) >>> 32);
+	}
+
+	/**
+	 * Draws a random double in [0, 1).
+	 *
+	 * @return A uniformly distributed double.
+	 */
+	protected final double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Seeds the random number generator.
+	 *
+	 * @param seed
+	 *            The seed.
+	 */
+	public void setSeed(Long seed) {
+		/* splitmix64, so that close seeds give unrelated states */
+		long z = seed + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z ^= z >>> 31;
+		rngState = (z != 0) ? z : 0x9E3779B97F4A7C15L;
+	}
+
+	/* (non-Javadoc)
+	 * @see metaheuristics.AbstractSearch#getBestCost()
+	 */
+	@Override
+	protected double getBestCost() {
+		return bestValue;
+	}
+
+}
@@ -0,0 +1,337 @@
+package metaheuristics.tabusearch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import problems.Evaluator;
+import problems.IntEvaluator;
+import solutions.Solution;
+
+/**
+ * Specialization of {@link AbstractTS} for problems whose solutions are
+ * subsets of integer indices, i.e., binary decision variables. The incumbent
+ * solution is kept by an {@link IntEvaluator}, the best solution is an array
+ * of booleans and the tabu memory is the iteration until which each element
+ * is tabu, so that a steady-state iteration (one which does not improve the
+ * best solution) does not box values nor allocate memory. The boxed
+ * {@link #bestSol} is only built when the search ends or when an improvement
+ * is reported.
+ *
+ * @author ccavellucci, fusberti
+ */
+public abstract class AbstractIntTS extends AbstractTS<Integer> {
+
+	/**
+	 * the incremental evaluator, which keeps the incumbent solution.
+	 */
+	protected IntEvaluator evaluator;
+
+	/**
+	 * the best solution cost.
+	 */
+	protected double bestValue;
+
+	/**
+	 * the best solution, as the selection state of each element.
+	 */
+	protected boolean[] bestX;
+
+	/**
+	 * an element is tabu while {@link #currentIteration} is not greater than
+	 * its entry.
+	 */
+	protected int[] tabuUntil;
+
+	/**
+	 * buffer of the restricted candidate list of the constructive heuristic.
+	 */
+	private int[] rclBuffer;
+
+	/**
+	 * Constructor for the AbstractIntTS class.
+	 *
+	 * @param objFunction
+	 *            The objective function being minimized.
+	 * @param evaluator
+	 *            The incremental evaluator of the same objective function.
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 */
+	public AbstractIntTS(Evaluator<Integer> objFunction, IntEvaluator evaluator, Integer tenure, Integer iterations) {
+		super(objFunction, tenure, iterations);
+		this.evaluator = evaluator;
+	}
+
+	/**
+	 * Tells whether an element is tabu in the current iteration.
+	 *
+	 * @param elem
+	 *            the element.
+	 * @return true if the element is tabu.
+	 */
+	protected boolean isTabu(int elem) {
+		return currentIteration <= tabuUntil[elem];
+	}
+
+	/**
+	 * Makes an element tabu for the next {@link #tenure} iterations.
+	 *
+	 * @param elem
+	 *            the element which has just been moved.
+	 */
+	protected void setTabu(int elem) {
+		tabuUntil[elem] = currentIteration + tenure;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The Candidate List holds the elements which are not selected.
+	 */
+	@Override
+	public ArrayList<Integer> makeCL() {
+
+		ArrayList<Integer> _CL = new ArrayList<Integer>();
+		for (int i = 0; i < evaluator.getDomainSize(); i++) {
+			if (!evaluator.isSelected(i))
+				_CL.add(i);
+		}
+
+		return _CL;
+	}
+
+	/* (non-Javadoc)
+	 * @see metaheuristics.tabusearch.AbstractTS#makeRCL()
+	 */
+	@Override
+	public ArrayList<Integer> makeRCL() {
+		return new ArrayList<Integer>();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The Tabu List holds the elements which are tabu in the current
+	 * iteration.
+	 */
+	@Override
+	public ArrayDeque<Integer> makeTL() {
+
+		ArrayDeque<Integer> _TL = new ArrayDeque<Integer>();
+		for (int i = 0; tabuUntil != null && i < tabuUntil.length; i++) {
+			if (isTabu(i))
+				_TL.add(i);
+		}
+
+		return _TL;
+	}
+
+	/* (non-Javadoc)
+	 * @see metaheuristics.tabusearch.AbstractTS#updateCL()
+	 */
+	@Override
+	public void updateCL() {
+
+		// do nothing
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * This constructive heuristic works over the incremental evaluator: while
+	 * the last insertion improved the solution, an element with the lowest
+	 * insertion cost is chosen randomly and inserted.
+	 */
+	@Override
+	public Solution<Integer> constructiveHeuristic() {
+
+		int n = evaluator.getDomainSize();
+		if (rclBuffer == null || rclBuffer.length != n)
+			rclBuffer = new int[n];
+		evaluator.reset();
+		double previousCost = Double.POSITIVE_INFINITY;
+
+		while (previousCost > evaluator.getCost()) {
+
+			previousCost = evaluator.getCost();
+			double minCost = Double.POSITIVE_INFINITY;
+			int rclSize = 0;
+			for (int i = 0; i < n; i++) {
+				if (evaluator.isSelected(i))
+					continue;
+				double deltaCost = evaluator.evaluateInsertionCost(i);
+				if (deltaCost < minCost) {
+					minCost = deltaCost;
+					rclSize = 0;
+				}
+				if (deltaCost <= minCost)
+					rclBuffer[rclSize++] = i;
+			}
+			if (rclSize == 0)
+				break;
+			evaluator.flip(rclBuffer[rng.nextInt(rclSize)]);
+
+		}
+
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The best solution starts as the empty one.
+	 */
+	@Override
+	protected Solution<Integer> newSearch() {
+
+		int n = evaluator.getDomainSize();
+		startBoundComputation();
+		bestSol = createEmptySol();
+		bestValue = bestSol.cost;
+		bestX = new boolean[n];
+		tabuUntil = new int[n];
+		Arrays.fill(tabuUntil, Integer.MIN_VALUE);
+		constructiveHeuristic();
+
+		return search(0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The boxed best solution is built from {@link #bestX} when the search
+	 * ends.
+	 */
+	@Override
+	protected Solution<Integer> search(int first) {
+
+		super.search(first);
+		bestSol = toSolution(bestX, bestValue);
+
+		return bestSol;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The incumbent solution is copied into the preallocated {@link #bestX};
+	 * {@link #bestSol} is only built if the improvement is to be reported.
+	 */
+	@Override
+	protected boolean updateBestSol() {
+
+		double cost = evaluator.getCost();
+		if (bestValue > cost) {
+			bestValue = cost;
+			for (int i = 0; i < bestX.length; i++)
+				bestX[i] = evaluator.isSelected(i);
+			if (verbose)
+				bestSol = toSolution(bestX, bestValue);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The copy is built from {@link #bestX}.
+	 */
+	@Override
+	protected Solution<Integer> copyBestSol() {
+		return (bestX != null) ? toSolution(bestX, bestValue) : super.copyBestSol();
+	}
+
+	/* (non-Javadoc)
+	 * @see metaheuristics.tabusearch.AbstractTS#getBestCost()
+	 */
+	@Override
+	protected double getBestCost() {
+		return bestValue;
+	}
+
+	/* (non-Javadoc)
+	 * @see metaheuristics.tabusearch.AbstractTS#writeElement(java.io.DataOutputStream, java.lang.Object)
+	 */
+	@Override
+	protected void writeElement(DataOutputStream out, Integer elem) throws IOException {
+		out.writeInt(elem);
+	}
+
+	/* (non-Javadoc)
+	 * @see metaheuristics.tabusearch.AbstractTS#readElement(java.io.DataInputStream)
+	 */
+	@Override
+	protected Integer readElement(DataInputStream in) throws IOException {
+		return in.readInt();
+	}
+
+	/**
+	 * Creates a solution from the selection state of the elements.
+	 *
+	 * @param x
+	 *            The selection state of each element.
+	 * @param cost
+	 *            The cost of the solution.
+	 * @return A new solution.
+	 */
+	protected Solution<Integer> toSolution(boolean[] x, double cost) {
+
+		Solution<Integer> sol = new Solution<Integer>();
+		for (int i = 0; i < x.length; i++) {
+			if (x[i])
+				sol.add(i);
+		}
+		sol.cost = cost;
+
+		return sol;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The state of the incremental evaluator is not written here, since it
+	 * depends on the problem: subclasses must write it.
+	 */
+	@Override
+	protected void writeState(DataOutputStream out) throws IOException {
+
+		writeHeader(out);
+		out.writeDouble(bestValue);
+		out.writeInt(bestX.length);
+		for (int i = 0; i < bestX.length; i++) {
+			out.writeBoolean(bestX[i]);
+			out.writeInt(tabuUntil[i]);
+		}
+		out.flush();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see metaheuristics.tabusearch.AbstractTS#readState(java.io.DataInputStream)
+	 */
+	@Override
+	protected void readState(DataInputStream in) throws IOException {
+
+		readHeader(in);
+		bestValue = in.readDouble();
+		int n = in.readInt();
+		bestX = new boolean[n];
+		tabuUntil = new int[n];
+		for (int i = 0; i < n; i++) {
+			bestX[i] = in.readBoolean();
+			tabuUntil[i] = in.readInt();
+		}
+		bestSol = toSolution(bestX, bestValue);
+
+	}
+
+}
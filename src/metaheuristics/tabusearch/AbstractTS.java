@@ -3,10 +3,28 @@
  */
 package metaheuristics.tabusearch;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Random;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import metaheuristics.AbstractSearch;
 import problems.Evaluator;
 import solutions.Solution;
 
@@ -17,7 +35,7 @@ import solutions.Solution;
  * @param <E>
  *            Generic type of the candidate to enter the solution.
  */
-public abstract class AbstractTS<E> {
+public abstract class AbstractTS<E> extends AbstractSearch {
 
 	/**
 	 * flag that indicates whether the code should print more information on
@@ -28,7 +46,12 @@ public abstract class AbstractTS<E> {
 	/**
 	 * a random number generator
 	 */
-	static Random rng = new Random(0);
+	protected Random rng = new Random(0);
+
+	/**
+	 * identifies the binary format of a checkpoint file.
+	 */
+	private static final int CHECKPOINT_MAGIC = 0x54534350;
 
 	/**
 	 * the objective function being optimized
@@ -80,6 +103,50 @@ public abstract class AbstractTS<E> {
 	 */
 	protected ArrayDeque<E> TL;
 
+	/**
+	 * the iteration of the TS main loop being executed.
+	 */
+	protected int currentIteration;
+
+	/**
+	 * the number of iterations between two checkpoints.
+	 */
+	protected Integer checkpointInterval;
+
+	/**
+	 * the checkpoint file, or null if checkpointing is disabled.
+	 */
+	protected String checkpointFile;
+
+	/**
+	 * whether a search is running, i.e., whether the best solution may be
+	 * changed by the search thread.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * the thread running the search, which serves the requests of
+	 * {@link #getBestSol()} itself and so must not wait for them.
+	 */
+	private volatile Thread searchThread;
+
+	/**
+	 * the number of improvements of the best solution in the current search,
+	 * written only by the search thread.
+	 */
+	private volatile long improvements;
+
+	/**
+	 * a pending request for a copy of the best solution, which the search
+	 * thread serves between two iterations.
+	 */
+	private final AtomicReference<CompletableFuture<Solution<E>>> bestRequest = new AtomicReference<CompletableFuture<Solution<E>>>();
+
+	/**
+	 * the listeners notified of the improvements of the best solution.
+	 */
+	private final List<Consumer<Solution<E>>> listeners = new CopyOnWriteArrayList<Consumer<Solution<E>>>();
+
 	/**
 	 * Creates the Candidate List, which is an ArrayList of candidate elements
 	 * that can enter a solution.
@@ -143,6 +210,7 @@ public abstract class AbstractTS<E> {
 	 *            The number of iterations which the TS will be executed.
 	 */
 	public AbstractTS(Evaluator<E> objFunction, Integer tenure, Integer iterations) {
+		super("ts");
 		this.ObjFunction = objFunction;
 		this.tenure = tenure;
 		this.iterations = iterations;
@@ -193,6 +261,8 @@ public abstract class AbstractTS<E> {
 			}
 		
 			/* Choose a candidate randomly from the RCL */
+			if (RCL.isEmpty())
+				break;
 			int rndIndex = rng.nextInt(RCL.size());
 			E inCand = RCL.get(rndIndex);
 			CL.remove(inCand);
@@ -212,23 +282,518 @@ public abstract class AbstractTS<E> {
 	 * 
 	 * @return The best feasible solution obtained throughout all iterations.
 	 */
-	public Solution<E> solve() {
+	public final Solution<E> solve() {
+
+		cancelled = false;
+
+		return newSearch();
+	}
+
+	/**
+	 * Starts a new search from the constructive heuristic. It is called by
+	 * {@link #solve()} and {@link #solveAsync(Executor)} once the cancellation
+	 * flag is cleared, so a {@link #cancel()} issued in between is kept.
+	 * Subclasses which prepare their memory for a new search override this
+	 * method.
+	 * 
+	 * @return The best feasible solution obtained throughout all iterations.
+	 */
+	protected Solution<E> newSearch() {
 
+		startBoundComputation();
 		bestSol = createEmptySol();
 		constructiveHeuristic();
 		TL = makeTL();
-		for (int i = 0; i < iterations; i++) {
-			neighborhoodMove();
-			if (bestSol.cost > incumbentSol.cost) {
-				bestSol = new Solution<E>(incumbentSol);
-				if (verbose)
-					System.out.println("(Iter. " + i + ") BestSol = " + bestSol);
+
+		return search(0);
+	}
+
+	/**
+	 * Resumes a search from a checkpoint written by a previous run with the
+	 * same parameters. The constructive heuristic is not executed again and
+	 * the search continues exactly as the interrupted run would have.
+	 * 
+	 * @param filename
+	 *            Name of the checkpoint file.
+	 * @return The best feasible solution obtained throughout all iterations.
+	 * @throws IOException
+	 *             If the checkpoint cannot be read.
+	 */
+	public Solution<E> resume(String filename) throws IOException {
+
+		byte[] snapshot = Files.readAllBytes(Paths.get(filename));
+		readState(new DataInputStream(new ByteArrayInputStream(snapshot)));
+		cancelled = false;
+		startBoundComputation();
+
+		return search(currentIteration + 1);
+	}
+
+	/**
+	 * Continues the search from the incumbent and best solutions of the
+	 * previous {@link #solve()} (or {@link #reoptimize(Integer)}), which is
+	 * the way to re-optimize after the objective function has changed.
+	 * Subclasses which allow such changes must repair the costs of their
+	 * incumbent and best solutions before. The tabu memory is kept and the
+	 * lower bound is computed again.
+	 * 
+	 * @param iterations
+	 *            The number of additional iterations.
+	 * @return The best feasible solution obtained throughout all iterations.
+	 */
+	public Solution<E> reoptimize(Integer iterations) {
+
+		int first = currentIteration + 1;
+		this.iterations = first + iterations;
+		cancelled = false;
+		startBoundComputation();
+
+		return search(first);
+	}
+
+	/**
+	 * Runs {@link #solve()} asynchronously in the given executor. Cancelling
+	 * the returned future stops the search at its next iteration (see
+	 * {@link #cancel()}); the best solution found up to then is still given
+	 * by {@link #getBestSol()}. The cancellation flag is cleared here, before
+	 * the task is submitted, so a cancellation which lands before the task
+	 * starts is not lost.
+	 * 
+	 * @param executor
+	 *            The executor which runs the search.
+	 * @return The future best feasible solution.
+	 */
+	public CompletableFuture<Solution<E>> solveAsync(Executor executor) {
+
+		cancelled = false;
+		CompletableFuture<Solution<E>> future = new CompletableFuture<Solution<E>>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				AbstractTS.this.cancel();
+				return super.cancel(mayInterruptIfRunning);
+			}
+		};
+		executor.execute(() -> {
+			if (future.isDone())
+				return;
+			try {
+				future.complete(newSearch());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Runs {@link #solve()} asynchronously in a new thread.
+	 * 
+	 * @return The future best feasible solution.
+	 */
+	public CompletableFuture<Solution<E>> solveAsync() {
+		return solveAsync(r -> new Thread(r, "ts-solve").start());
+	}
+
+	/**
+	 * Adds a listener which is notified of the improvements of the best
+	 * solution. Listeners run in a separate thread, so they do not block the
+	 * search; when improvements come faster than the listeners consume them,
+	 * the intermediate ones are skipped and only the latest best solution is
+	 * given. All notifications are delivered before the search returns.
+	 * 
+	 * @param listener
+	 *            The listener, which receives a copy of the best solution.
+	 */
+	public void addProgressListener(Consumer<Solution<E>> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Gives a copy of the best solution, which can be called by any thread in
+	 * the middle of a search. The copy is made by the search thread between
+	 * two iterations, upon request, so the search does not copy the best
+	 * solution on every improvement; the caller waits for at most one
+	 * iteration. When no search is running, the best solution of the last
+	 * search is given. When called by the search thread itself, e.g. from
+	 * {@link #neighborhoodMove()}, the copy is made directly.
+	 * 
+	 * @return A copy of the best solution, or null if there was no search.
+	 */
+	public Solution<E> getBestSol() {
+
+		if (Thread.currentThread() == searchThread)
+			return copyBestSol();
+
+		CompletableFuture<Solution<E>> request = new CompletableFuture<Solution<E>>();
+		CompletableFuture<Solution<E>> pending = bestRequest.compareAndExchange(null, request);
+		if (pending != null)
+			request = pending;
+		if (!running)
+			serveBestRequest();
+
+		return request.join();
+	}
+
+	/**
+	 * Serves a pending request for a copy of the best solution.
+	 */
+	private void serveBestRequest() {
+		CompletableFuture<Solution<E>> request = bestRequest.getAndSet(null);
+		if (request != null)
+			request.complete(copyBestSol());
+	}
+
+	/**
+	 * Makes a copy of the best solution, in the form returned by a search.
+	 * Called by the search thread or when no search is running.
+	 * 
+	 * @return A copy of the best solution, or null if there is none.
+	 */
+	protected Solution<E> copyBestSol() {
+		return (bestSol != null) ? new Solution<E>(bestSol) : null;
+	}
+
+	/**
+	 * Notifies the listeners of the improvements of the best solution until
+	 * the search ends.
+	 */
+	private void notifyListeners() {
+
+		long notified = 0;
+		while (true) {
+			boolean ended = !running;
+			long current = improvements;
+			if (current != notified) {
+				notified = current;
+				Solution<E> sol = getBestSol();
+				for (Consumer<Solution<E>> listener : listeners)
+					listener.accept(sol);
+			} else if (ended) {
+				break;
+			} else {
+				LockSupport.park(this);
+			}
+		}
+
+	}
+
+	/**
+	 * The TS main loop, in which each iteration a neighborhood move is
+	 * performed on the current solution and a checkpoint is taken every
+	 * {@link #checkpointInterval} iterations. The loop ends early when the
+	 * best solution is proved optimal by the lower bound, when the
+	 * {@link #timeLimit} is reached or when the search is cancelled.
+	 * 
+	 * @param first
+	 *            The first iteration to be executed.
+	 * @return The best feasible solution obtained throughout all iterations.
+	 */
+	protected Solution<E> search(int first) {
+
+		CheckpointWriter checkpointWriter = (checkpointFile != null) ? new CheckpointWriter(checkpointFile) : null;
+		long deadline = getDeadline();
+		improvements = 0;
+		searchThread = Thread.currentThread();
+		running = true;
+		Thread notifier = null;
+		if (!listeners.isEmpty()) {
+			notifier = new Thread(this::notifyListeners, "ts-progress");
+			notifier.setDaemon(true);
+			notifier.start();
+		}
+		try {
+			for (currentIteration = first; currentIteration < iterations; currentIteration++) {
+				neighborhoodMove();
+				if (updateBestSol()) {
+					improvements++;
+					if (notifier != null)
+						LockSupport.unpark(notifier);
+					if (verbose)
+						System.out.println("(Iter. " + currentIteration + ") BestSol = " + bestSol);
+				}
+				if (bestRequest.get() != null)
+					serveBestRequest();
+				if (checkpointWriter != null && (currentIteration + 1) % checkpointInterval == 0)
+					checkpointWriter.write(snapshot());
+				String stop = checkStop(deadline);
+				if (stop != null) {
+					if (verbose)
+						System.out.println("(Iter. " + currentIteration + ") " + stop);
+					break;
+				}
 			}
+		} finally {
+			running = false;
+			searchThread = null;
+			serveBestRequest();
+			if (notifier != null) {
+				LockSupport.unpark(notifier);
+				try {
+					notifier.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (checkpointWriter != null)
+				checkpointWriter.close();
 		}
 
 		return bestSol;
 	}
 
+	/**
+	 * Replaces the best solution by the incumbent solution if the latter is
+	 * better.
+	 * 
+	 * @return true if the best solution was replaced.
+	 */
+	protected boolean updateBestSol() {
+
+		if (bestSol.cost > incumbentSol.cost) {
+			bestSol = new Solution<E>(incumbentSol);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Enables checkpointing: every interval iterations the whole search state
+	 * is written to a file in background, so that an interrupted run can be
+	 * continued by {@link #resume(String)}. Subclasses which keep additional
+	 * search memory must also override {@link #writeState(DataOutputStream)}
+	 * and {@link #readState(DataInputStream)}.
+	 * 
+	 * @param filename
+	 *            Name of the checkpoint file.
+	 * @param interval
+	 *            The number of iterations between two checkpoints.
+	 */
+	public void setCheckpoint(String filename, Integer interval) {
+		this.checkpointFile = filename;
+		this.checkpointInterval = interval;
+	}
+
+	/**
+	 * Sets the seed of the random number generator, so that independent
+	 * searches over the same problem can be run.
+	 * 
+	 * @param seed
+	 *            The seed.
+	 */
+	public void setSeed(Long seed) {
+		rng.setSeed(seed);
+	}
+
+	/* (non-Javadoc)
+	 * @see metaheuristics.AbstractSearch#getBestCost()
+	 */
+	@Override
+	protected double getBestCost() {
+		return bestSol.cost;
+	}
+
+	/**
+	 * Serializes the current search state into a compact binary snapshot.
+	 * 
+	 * @return The snapshot.
+	 */
+	protected byte[] snapshot() {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			writeState(new DataOutputStream(bytes));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes the search state: the iteration counter, the random number
+	 * generator, the incumbent and best solutions with their costs and the
+	 * candidate and tabu lists.
+	 * 
+	 * @param out
+	 *            The stream the state is written to.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	protected void writeState(DataOutputStream out) throws IOException {
+
+		writeHeader(out);
+		writeSolution(out, bestSol);
+		writeSolution(out, incumbentSol);
+		out.writeDouble(incumbentCost);
+		writeElements(out, CL);
+		writeElements(out, TL);
+		out.flush();
+
+	}
+
+	/**
+	 * Restores a search state written by {@link #writeState(DataOutputStream)}.
+	 * 
+	 * @param in
+	 *            The stream the state is read from.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	protected void readState(DataInputStream in) throws IOException {
+
+		readHeader(in);
+		bestSol = readSolution(in);
+		incumbentSol = readSolution(in);
+		incumbentCost = in.readDouble();
+		CL = makeCL();
+		CL.clear();
+		readElements(in, CL);
+		RCL = makeRCL();
+		TL = makeTL();
+		TL.clear();
+		readElements(in, TL);
+
+	}
+
+	/**
+	 * Writes the part of the search state which is common to every tabu
+	 * search: the iteration counter and the random number generator.
+	 * 
+	 * @param out
+	 *            The stream the state is written to.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	protected void writeHeader(DataOutputStream out) throws IOException {
+
+		out.writeInt(CHECKPOINT_MAGIC);
+		out.writeInt(currentIteration);
+		ByteArrayOutputStream rngBytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream rngOut = new ObjectOutputStream(rngBytes)) {
+			rngOut.writeObject(rng);
+		}
+		out.writeInt(rngBytes.size());
+		rngBytes.writeTo(out);
+
+	}
+
+	/**
+	 * Reads the part of the search state written by
+	 * {@link #writeHeader(DataOutputStream)}.
+	 * 
+	 * @param in
+	 *            The stream the state is read from.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	protected void readHeader(DataInputStream in) throws IOException {
+
+		if (in.readInt() != CHECKPOINT_MAGIC)
+			throw new IOException("Not a tabu search checkpoint");
+		currentIteration = in.readInt();
+		byte[] rngBytes = new byte[in.readInt()];
+		in.readFully(rngBytes);
+		try (ObjectInputStream rngIn = new ObjectInputStream(new ByteArrayInputStream(rngBytes))) {
+			rng = (Random) rngIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+
+	}
+
+	/**
+	 * Writes a solution and its cost.
+	 * 
+	 * @param out
+	 *            The stream the solution is written to.
+	 * @param sol
+	 *            The solution.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	private void writeSolution(DataOutputStream out, Solution<E> sol) throws IOException {
+		out.writeDouble(sol.cost);
+		writeElements(out, sol);
+	}
+
+	/**
+	 * Reads a solution written by
+	 * {@link #writeSolution(DataOutputStream, Solution)}.
+	 * 
+	 * @param in
+	 *            The stream the solution is read from.
+	 * @return The solution.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	private Solution<E> readSolution(DataInputStream in) throws IOException {
+		Solution<E> sol = new Solution<E>();
+		sol.cost = in.readDouble();
+		readElements(in, sol);
+		return sol;
+	}
+
+	/**
+	 * Writes a collection of elements preceded by its size.
+	 * 
+	 * @param out
+	 *            The stream the elements are written to.
+	 * @param elems
+	 *            The elements.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	private void writeElements(DataOutputStream out, Collection<E> elems) throws IOException {
+		out.writeInt(elems.size());
+		for (E e : elems)
+			writeElement(out, e);
+	}
+
+	/**
+	 * Reads elements written by
+	 * {@link #writeElements(DataOutputStream, java.util.Collection)},
+	 * appending them to a collection.
+	 * 
+	 * @param in
+	 *            The stream the elements are read from.
+	 * @param elems
+	 *            The collection the elements are appended to.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	private void readElements(DataInputStream in, Collection<E> elems) throws IOException {
+		int n = in.readInt();
+		for (int i = 0; i < n; i++)
+			elems.add(readElement(in));
+	}
+
+	/**
+	 * Writes a single candidate element, which subclasses encode for
+	 * checkpointing.
+	 * 
+	 * @param out
+	 *            The stream the element is written to.
+	 * @param elem
+	 *            The element.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	protected abstract void writeElement(DataOutputStream out, E elem) throws IOException;
+
+	/**
+	 * Reads a single candidate element written by
+	 * {@link #writeElement(DataOutputStream, Object)}.
+	 * 
+	 * @param in
+	 *            The stream the element is read from.
+	 * @return The element.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	protected abstract E readElement(DataInputStream in) throws IOException;
+
 	/**
 	 * A standard stopping criteria for the constructive heuristic is to repeat
 	 * until the incumbent solution improves by inserting a new candidate
@@ -0,0 +1,85 @@
+package metaheuristics.tabusearch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes search snapshots to disk in a background thread, so that the search
+ * loop never waits for the disk. Each snapshot is written to a temporary file
+ * which then atomically replaces the previous checkpoint. If the disk is
+ * slower than the search, pending snapshots are superseded by newer ones.
+ *
+ * @author ccavellucci, fusberti
+ */
+class CheckpointWriter {
+
+	/**
+	 * the checkpoint file.
+	 */
+	private final Path file;
+
+	/**
+	 * the temporary file a snapshot is written to before replacing the
+	 * checkpoint.
+	 */
+	private final Path tmpFile;
+
+	/**
+	 * a single writer thread with room for one pending snapshot.
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Constructor for the CheckpointWriter class.
+	 *
+	 * @param filename
+	 *            Name of the checkpoint file.
+	 */
+	CheckpointWriter(String filename) {
+		this.file = Paths.get(filename);
+		this.tmpFile = Paths.get(filename + ".tmp");
+		this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(1), r -> {
+					Thread t = new Thread(r, "ts-checkpoint");
+					t.setDaemon(true);
+					return t;
+				}, new ThreadPoolExecutor.DiscardOldestPolicy());
+	}
+
+	/**
+	 * Schedules a snapshot to be written. Returns immediately.
+	 *
+	 * @param snapshot
+	 *            The serialized search state.
+	 */
+	void write(byte[] snapshot) {
+		executor.execute(() -> {
+			try {
+				Files.write(tmpFile, snapshot);
+				Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				System.err.println("Checkpoint to " + file + " failed: " + e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Waits for the pending snapshots to be written and releases the writer
+	 * thread.
+	 */
+	void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package problems;
+
+/**
+ * The IntEvaluator interface is the primitive counterpart of {@link Evaluator}
+ * for problems whose solutions are subsets of a domain of integer indices,
+ * i.e., binary decision variables. Unlike {@link Evaluator}, an IntEvaluator
+ * keeps the current assignment of the variables (the incumbent solution) and
+ * is responsible for updating it, so that cost variations can be computed
+ * incrementally, without boxing and without allocating memory.
+ *
+ * Only binary selection over the integer indices is modelled, and cost
+ * variations are doubles: the solvers of this package search subsets of
+ * variables of functions with real coefficients, so general integer domains
+ * and integral (long) cost variations are left to an evaluator which needs
+ * them.
+ *
+ * @author ccavellucci, fusberti
+ */
+public interface IntEvaluator {
+
+	/**
+	 * Gives the size of the problem domain. Typically this is the number of
+	 * decision variables of an optimization problem.
+	 *
+	 * @return the size of the problem domain.
+	 */
+	public abstract int getDomainSize();
+
+	/**
+	 * Gives the cost of the current assignment.
+	 *
+	 * @return the cost of the current assignment.
+	 */
+	public abstract double getCost();
+
+	/**
+	 * Tells whether an element is in the current assignment.
+	 *
+	 * @param elem
+	 *            the element.
+	 * @return true if the element is selected.
+	 */
+	public abstract boolean isSelected(int elem);
+
+	/**
+	 * Gives the number of elements in the current assignment.
+	 *
+	 * @return the number of selected elements.
+	 */
+	public abstract int getSelectedCount();
+
+	/**
+	 * Evaluates the cost variation of inserting an element into the current
+	 * assignment.
+	 *
+	 * @param elem
+	 *            the element under consideration for insertion.
+	 * @return the cost variation resulting from the element insertion, or
+	 *         zero if the element is already selected.
+	 */
+	public abstract double evaluateInsertionCost(int elem);
+
+	/**
+	 * Evaluates the cost variation of removing an element from the current
+	 * assignment.
+	 *
+	 * @param elem
+	 *            the element under consideration for removal.
+	 * @return the cost variation resulting from the element removal, or zero
+	 *         if the element is not selected.
+	 */
+	public abstract double evaluateRemovalCost(int elem);
+
+	/**
+	 * Evaluates the cost variation of exchanging an element which is not
+	 * selected (elemIn) with a selected one (elemOut).
+	 *
+	 * @param elemIn
+	 *            the element under consideration for insertion.
+	 * @param elemOut
+	 *            the element under consideration for removal.
+	 * @return the cost variation resulting from the elements exchange.
+	 */
+	public abstract double evaluateExchangeCost(int elemIn, int elemOut);
+
+	/**
+	 * Flips an element, i.e., inserts it into the current assignment if it is
+	 * not selected and removes it otherwise, updating the cost.
+	 *
+	 * @param elem
+	 *            the element being flipped.
+	 */
+	public abstract void flip(int elem);
+
+	/**
+	 * Resets the current assignment to the empty one.
+	 */
+	public abstract void reset();
+
+}
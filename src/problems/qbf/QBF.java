@@ -6,6 +6,9 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StreamTokenizer;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 import problems.Evaluator;
 import solutions.Solution;
 
@@ -40,6 +43,40 @@ public class QBF implements Evaluator<Integer> {
 	 */
 	public Double[][] A;
 
+	/**
+	 * The symmetric matrix of couplings, C[i][j] = A[i][j] + A[j][i] for
+	 * i != j and C[i][i] = A[i][i], built on demand by
+	 * {@link #getCouplings()}.
+	 */
+	private volatile double[][] C;
+
+	/**
+	 * For each row of {@link #C}, the range [spanStart, spanEnd) of columns
+	 * which holds all its nonzero couplings, built with the couplings.
+	 */
+	private int[] spanStart, spanEnd;
+
+	/**
+	 * The upper triangle of the matrix of couplings, packed row by row:
+	 * C[i][j], for j >= i, is at {@link #packedRow(int)} + j. Built on the
+	 * first evaluation by {@link #getPackedCouplings()}, it takes n(n+1)/2
+	 * primitive values, which fit in an array for n up to 65535 (the boxed
+	 * matrix A is far larger than that).
+	 */
+	private volatile double[] packed;
+
+	/**
+	 * For each row of {@link #packed}, one past the last column with a
+	 * nonzero coupling, or the row itself if it has none.
+	 */
+	private int[] packedEnd;
+
+	/**
+	 * The number of coefficients below which the rows of a full evaluation
+	 * are not split among workers.
+	 */
+	private static final long EVALUATION_GRAIN = 1 << 18;
+
 	/**
 	 * The constructor for QuadracticBinaryFunction class. The filename of the
 	 * input for setting matrix of coefficients A of the QBF. The dimension of
@@ -55,6 +92,19 @@ public class QBF implements Evaluator<Integer> {
 		variables = allocateVariables();
 	}
 
+	/**
+	 * The constructor for QuadracticBinaryFunction class from a given matrix
+	 * of coefficients, which is expected to be upper triangular.
+	 * 
+	 * @param A
+	 *            The matrix of coefficients.
+	 */
+	public QBF(Double[][] A) {
+		this.A = A;
+		size = A.length;
+		variables = allocateVariables();
+	}
+
 	/**
 	 * Evaluates the value of a solution by transforming it into a vector. This
 	 * is required to perform the matrix multiplication which defines a QBF.
@@ -73,6 +123,186 @@ public class QBF implements Evaluator<Integer> {
 
 	}
 
+	/**
+	 * Gives the symmetric matrix of couplings as primitive values, so that
+	 * each row holds all the coefficients involving one variable. The matrix
+	 * is built once and shared by every incremental evaluator of this QBF.
+	 * 
+	 * @return The symmetric matrix of couplings.
+	 */
+	public double[][] getCouplings() {
+
+		double[][] _C = C;
+		if (_C == null) {
+			synchronized (this) {
+				_C = C;
+				if (_C == null) {
+					_C = new double[size][size];
+					for (int i = 0; i < size; i++) {
+						for (int j = 0; j < size; j++) {
+							_C[i][j] += A[i][j];
+							if (i != j)
+								_C[j][i] += A[i][j];
+						}
+					}
+					spanStart = new int[size];
+					spanEnd = new int[size];
+					for (int i = 0; i < size; i++) {
+						int first = 0, last = -1;
+						for (int j = size - 1; j >= 0; j--) {
+							if (_C[i][j] != 0) {
+								first = j;
+								if (last < 0)
+									last = j;
+							}
+						}
+						spanStart[i] = first;
+						spanEnd[i] = last + 1;
+					}
+					C = _C;
+				}
+			}
+		}
+
+		return _C;
+	}
+
+	/**
+	 * Gives, for each row of the matrix of couplings, the range of columns
+	 * which holds all its nonzero couplings, so that the row walks of an
+	 * incremental evaluator can skip the zeros around the band of a banded
+	 * matrix (see {@link QBF_Reordering}). The ranges are shared and may only
+	 * grow, when a coefficient is changed.
+	 * 
+	 * @return The arrays of the first column and of one past the last
+	 *         column of the range of each row.
+	 */
+	public int[][] getCouplingSpans() {
+		getCouplings();
+		synchronized (this) {
+			return new int[][] { spanStart, spanEnd };
+		}
+	}
+
+	/**
+	 * Gives the packed upper triangle of the matrix of couplings (see
+	 * {@link #packed}), building it on the first call.
+	 * 
+	 * @return The packed upper triangle.
+	 */
+	private double[] getPackedCouplings() {
+
+		double[] _packed = packed;
+		if (_packed == null) {
+			synchronized (this) {
+				_packed = packed;
+				if (_packed == null) {
+					_packed = new double[(int) ((long) size * (size + 1) / 2)];
+					packedEnd = new int[size];
+					for (int i = 0; i < size; i++) {
+						int offset = packedRow(i);
+						Double[] row = A[i];
+						packedEnd[i] = i;
+						for (int j = i; j < size; j++) {
+							double c = (j == i) ? row[j] : row[j] + A[j][i];
+							_packed[offset + j] = c;
+							if (c != 0)
+								packedEnd[i] = j + 1;
+						}
+					}
+					packed = _packed;
+				}
+			}
+		}
+
+		return _packed;
+	}
+
+	/**
+	 * Gives the position of row i in {@link #packed}, less i, so that
+	 * C[i][j] is at packedRow(i) + j.
+	 * 
+	 * @param i
+	 *            The row.
+	 * @return The shifted position of the row.
+	 */
+	private int packedRow(int i) {
+		return (int) ((long) i * size - (long) i * (i - 1) / 2) - i;
+	}
+
+	/**
+	 * Changes a coefficient of the matrix A in place, keeping the matrix of
+	 * couplings consistent. Incremental evaluators of this QBF must be
+	 * repaired with the returned variation (see
+	 * {@link QBF_Incremental#repair(int, int, double)}).
+	 * 
+	 * @param i
+	 *            Row of the coefficient.
+	 * @param j
+	 *            Column of the coefficient.
+	 * @param value
+	 *            The new value of the coefficient.
+	 * @return The variation of the coefficient.
+	 */
+	public synchronized double setCoefficient(int i, int j, double value) {
+
+		double delta = value - A[i][j];
+		A[i][j] = value;
+		double[][] _C = C;
+		if (_C != null) {
+			_C[i][j] += delta;
+			if (i != j)
+				_C[j][i] += delta;
+			widenSpan(i, j);
+			widenSpan(j, i);
+		}
+		double[] _packed = packed;
+		if (_packed != null) {
+			int lo = Math.min(i, j), hi = Math.max(i, j);
+			_packed[packedRow(lo) + hi] += delta;
+			packedEnd[lo] = Math.max(packedEnd[lo], hi + 1);
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Widens the range of nonzero couplings of a row to include a column.
+	 * 
+	 * @param i
+	 *            The row.
+	 * @param j
+	 *            The column.
+	 */
+	private void widenSpan(int i, int j) {
+		if (spanStart[i] >= spanEnd[i]) {
+			spanStart[i] = j;
+			spanEnd[i] = j + 1;
+		} else {
+			spanStart[i] = Math.min(spanStart[i], j);
+			spanEnd[i] = Math.max(spanEnd[i], j + 1);
+		}
+	}
+
+	/**
+	 * Computes the mean absolute row sum of the matrix of coefficients, which
+	 * is a scale for the cost variation of a single move.
+	 * 
+	 * @return The mean absolute row sum.
+	 */
+	public Double meanAbsoluteRowSum() {
+
+		double sum = 0.0;
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				sum += Math.abs(A[i][j]);
+			}
+		}
+
+		return (size > 0) ? sum / size : 0.0;
+
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -88,7 +318,9 @@ public class QBF implements Evaluator<Integer> {
 	 * computing a matrix multiplication x'.A.x. A better way to evaluate this
 	 * function when at most two variables are modified is given by methods
 	 * {@link #evaluateInsertionQBF(int)}, {@link #evaluateRemovalQBF(int)} and
-	 * {@link #evaluateExchangeQBF(int,int)}.
+	 * {@link #evaluateExchangeQBF(int,int)}, and many solutions are
+	 * evaluated at once by {@link QBF_Batch}. The first evaluation packs the
+	 * upper triangle of the couplings (see {@link #evaluateQBF()}).
 	 * 
 	 * @return The evaluation of the QBF.
 	 */
@@ -102,25 +334,200 @@ public class QBF implements Evaluator<Integer> {
 
 	/**
 	 * Evaluates a QBF by calculating the matrix multiplication that defines the
-	 * QBF: f(x) = x'.A.x .
+	 * QBF: f(x) = x'.A.x, as f(x) = sum_{i} x_i * sum_{j >= i} C[i][j]*x_j
+	 * over the packed upper triangle of the matrix of couplings, which is
+	 * built on the first evaluation and kept. Only the rows of
+	 * the nonzero variables are walked, and within each row only the tiles
+	 * of 64 columns which hold some nonzero variable, according to a bitset
+	 * of the variables: a tile is walked densely if most of its variables
+	 * are nonzero, and bit by bit otherwise. For large instances the rows are
+	 * split among the workers of the common {@link ForkJoinPool}.
 	 * 
 	 * @return The value of the QBF.
 	 */
 	public Double evaluateQBF() {
 
-		Double aux = (double) 0, sum = (double) 0;
-		Double vecAux[] = new Double[size];
-
+		double[] x = new double[size];
+		long[] bits = new long[(size + 63) >>> 6];
+		int[] rows = new int[size];
+		int count = 0;
 		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				aux += variables[j] * A[i][j];
+			x[i] = variables[i];
+			if (x[i] != 0) {
+				bits[i >>> 6] |= 1L << i;
+				rows[count++] = i;
 			}
-			vecAux[i] = aux;
-			sum += aux * variables[i];
-			aux = (double) 0;
 		}
+		if (count == 0)
+			return 0.0;
 
-		return sum;
+		Evaluation evaluation = new Evaluation(getPackedCouplings(), x, bits, rows, 0, count);
+
+		return ((long) count * size > EVALUATION_GRAIN) ? ForkJoinPool.commonPool().invoke(evaluation)
+				: evaluation.compute();
+
+	}
+
+	/**
+	 * Splits a range of rows of the upper triangle of the matrix into two
+	 * parts of about the same number of coefficients: row i holds size - i
+	 * coefficients, so the first part, of the longer rows, has fewer rows.
+	 * 
+	 * @param rows
+	 *            The rows, in increasing order.
+	 * @param lo
+	 *            The first position of the range in rows.
+	 * @param hi
+	 *            The end (exclusive) of the range in rows.
+	 * @param size
+	 *            The dimension of the matrix.
+	 * @return The first position of the second part, strictly between lo and
+	 *         hi when the range has at least two rows.
+	 */
+	static int splitTriangle(int[] rows, int lo, int hi, int size) {
+
+		long total = 0;
+		for (int k = lo; k < hi; k++)
+			total += size - rows[k];
+		long area = 0;
+		int mid = lo;
+		while (mid < hi - 1 && 2 * (area + size - rows[mid]) <= total)
+			area += size - rows[mid++];
+
+		return Math.max(mid, Math.min(lo + 1, hi - 1));
+	}
+
+	/**
+	 * Splits the range of consecutive rows [lo, hi) of the upper triangle of
+	 * the matrix into two parts of about the same number of coefficients, as
+	 * {@link #splitTriangle(int[], int, int, int)}, in O(1): the first k
+	 * rows hold k*(size - lo) - k*(k-1)/2 coefficients, which is solved for
+	 * half of the coefficients of the range.
+	 * 
+	 * @param lo
+	 *            The first row of the range.
+	 * @param hi
+	 *            The end (exclusive) of the range.
+	 * @param size
+	 *            The dimension of the matrix.
+	 * @return The first row of the second part, strictly between lo and hi
+	 *         when the range has at least two rows.
+	 */
+	static int splitTriangle(int lo, int hi, int size) {
+
+		double b = 2.0 * (size - lo) + 1, n = hi - lo;
+		double half = (n * (size - lo) - n * (n - 1) / 2) / 2;
+		int k = (int) Math.round((b - Math.sqrt(b * b - 8 * half)) / 2);
+
+		return lo + Math.max(Math.min(k, hi - lo - 1), Math.min(1, hi - lo - 1));
+	}
+
+	/**
+	 * The evaluation of the rows of a range of nonzero variables, which is
+	 * split in two (see {@link #splitTriangle(int[], int, int, int)}) while it is
+	 * large.
+	 */
+	@SuppressWarnings("serial")
+	private class Evaluation extends RecursiveTask<Double> {
+
+		/**
+		 * the packed upper triangle of the matrix of couplings.
+		 */
+		private final double[] packed;
+
+		/**
+		 * the values of the variables.
+		 */
+		private final double[] x;
+
+		/**
+		 * the bitset of the nonzero variables.
+		 */
+		private final long[] bits;
+
+		/**
+		 * the nonzero variables, in increasing order.
+		 */
+		private final int[] rows;
+
+		/**
+		 * the range [lo, hi) of the nonzero variables whose rows are walked.
+		 */
+		private final int lo, hi;
+
+		/**
+		 * Constructor for the Evaluation class.
+		 */
+		Evaluation(double[] packed, double[] x, long[] bits, int[] rows, int lo, int hi) {
+			this.packed = packed;
+			this.x = x;
+			this.bits = bits;
+			this.rows = rows;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected Double compute() {
+
+			if (hi <= lo)
+				return 0.0;
+			if (hi - lo > 1 && (long) (hi - lo) * (size - rows[lo]) > EVALUATION_GRAIN) {
+				int mid = splitTriangle(rows, lo, hi, size);
+				Evaluation right = new Evaluation(packed, x, bits, rows, mid, hi);
+				right.fork();
+				double sum = new Evaluation(packed, x, bits, rows, lo, mid).compute();
+				return sum + right.join();
+			}
+
+			double sum = 0.0;
+			for (int r = lo; r < hi; r++) {
+				int i = rows[r];
+				sum += x[i] * row(packedRow(i), i, packedEnd[i]);
+			}
+
+			return sum;
+		}
+
+		/**
+		 * Computes sum_{j >= i} C[i][j]*x_j, skipping the tiles of 64
+		 * columns with no nonzero variable.
+		 * 
+		 * @param offset
+		 *            The shifted position of the row in the packed
+		 *            triangle (see {@link QBF#packedRow(int)}).
+		 * @param i
+		 *            The index of the row.
+		 * @param end
+		 *            One past the last column of the row with a nonzero
+		 *            coupling.
+		 * @return The sum.
+		 */
+		private double row(int offset, int i, int end) {
+
+			double sum = 0.0;
+			for (int w = i >>> 6, last = (end + 63) >>> 6; w < last; w++) {
+				long m = (w == i >>> 6) ? bits[w] & (-1L << i) : bits[w];
+				if (m == 0)
+					continue;
+				int base = w << 6;
+				if (Long.bitCount(m) >= 32) {
+					for (int j = Math.max(base, i), e = Math.min(base + 64, end); j < e; j++)
+						sum += packed[offset + j] * x[j];
+				} else {
+					do {
+						int j = base + Long.numberOfTrailingZeros(m);
+						sum += packed[offset + j] * x[j];
+						m &= m - 1;
+					} while (m != 0);
+				}
+			}
+
+			return sum;
+		}
 
 	}
 
@@ -0,0 +1,329 @@
+package problems.qbf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import solutions.Solution;
+
+/**
+ * Batch evaluator of a QBF (Quadractic Binary Function -- {@link QBF}), which
+ * scores many solutions with a single pass over the matrix. The K solutions
+ * are packed as bit-columns: each variable i has ceil(K/64) words, in which
+ * bit k tells whether solution k selects i. Every coupling c_ij of the upper
+ * triangle of the symmetric matrix of couplings is then read once, and added
+ * to the value of each solution in the intersection of the words of i and j.
+ *
+ * The rows are split among the workers of a {@link ForkJoinPool}, each
+ * accumulating partial values of all solutions, and the columns are walked
+ * in tiles whose words fit the cache, so that the matrix is the only data
+ * streamed from memory. Rows selected by no solution, and the columns
+ * outside the span of nonzero couplings of each row, are skipped.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Batch {
+
+	/**
+	 * The number of rows below which a task is not split.
+	 */
+	private static final int GRAIN = 32;
+
+	/**
+	 * The number of bytes of words of a column tile.
+	 */
+	private static final int TILE_BYTES = 32 << 10;
+
+	/**
+	 * The QBF being evaluated.
+	 */
+	public final QBF ObjFunction;
+
+	/**
+	 * Dimension of the domain.
+	 */
+	protected final int size;
+
+	/**
+	 * The symmetric matrix of couplings of the QBF.
+	 */
+	protected final double[][] C;
+
+	/**
+	 * The range [spanStart, spanEnd) of columns of each row of C which holds
+	 * its nonzero couplings.
+	 */
+	protected final int[] spanStart, spanEnd;
+
+	/**
+	 * 1 for a QBF, -1 for a {@link QBF_Inverse}.
+	 */
+	protected final double sign;
+
+	/**
+	 * Constructor for the QBF_Batch class.
+	 *
+	 * @param objFunction
+	 *            The QBF being evaluated.
+	 */
+	public QBF_Batch(QBF objFunction) {
+		this.ObjFunction = objFunction;
+		this.size = objFunction.getDomainSize();
+		this.C = objFunction.getCouplings();
+		int[][] spans = objFunction.getCouplingSpans();
+		this.spanStart = spans[0];
+		this.spanEnd = spans[1];
+		this.sign = (objFunction instanceof QBF_Inverse) ? -1.0 : 1.0;
+	}
+
+	/**
+	 * Gives the number of words of the bit-column of a variable.
+	 *
+	 * @param count
+	 *            The number of solutions.
+	 * @return The number of words.
+	 */
+	public static int words(int count) {
+		return (count + 63) >>> 6;
+	}
+
+	/**
+	 * Packs solutions as bit-columns: bit k of word w of variable i, at
+	 * position i*words + w, is set if solution 64*w + k selects i.
+	 *
+	 * @param sols
+	 *            The solutions.
+	 * @return The packed solutions.
+	 */
+	public long[] pack(List<? extends Solution<Integer>> sols) {
+
+		int words = words(sols.size());
+		long[] bits = new long[size * words];
+		for (int k = 0; k < sols.size(); k++) {
+			for (Integer i : sols.get(k))
+				bits[i * words + (k >>> 6)] |= 1L << k;
+		}
+
+		return bits;
+	}
+
+	/**
+	 * Evaluates solutions in the common pool, setting the cost of each one
+	 * as {@link QBF#evaluate(Solution)} does.
+	 *
+	 * @param sols
+	 *            The solutions.
+	 * @return The values of the solutions, in order.
+	 */
+	public double[] evaluate(List<? extends Solution<Integer>> sols) {
+		return evaluate(sols, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Evaluates solutions in a given pool, setting the cost of each one as
+	 * {@link QBF#evaluate(Solution)} does.
+	 *
+	 * @param sols
+	 *            The solutions.
+	 * @param pool
+	 *            The pool which runs the evaluation.
+	 * @return The values of the solutions, in order.
+	 */
+	public double[] evaluate(List<? extends Solution<Integer>> sols, ForkJoinPool pool) {
+
+		double[] values = evaluate(pack(sols), sols.size(), pool);
+		for (int k = 0; k < values.length; k++)
+			sols.get(k).cost = values[k];
+
+		return values;
+	}
+
+	/**
+	 * Evaluates packed solutions (see {@link #pack(List)}).
+	 *
+	 * @param bits
+	 *            The packed solutions.
+	 * @param count
+	 *            The number of solutions.
+	 * @param pool
+	 *            The pool which runs the evaluation.
+	 * @return The values of the solutions, negated for a
+	 *         {@link QBF_Inverse}.
+	 */
+	public double[] evaluate(long[] bits, int count, ForkJoinPool pool) {
+
+		int words = words(count);
+		if (bits.length != size * words)
+			throw new IllegalArgumentException(
+					"Expected " + size * words + " words for " + count + " solutions, got " + bits.length);
+		if (count == 0)
+			return new double[0];
+		boolean[] used = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			for (int w = 0; w < words; w++)
+				used[i] |= bits[i * words + w] != 0;
+		}
+
+		double[] values = pool.invoke(new Rows(bits, words, count, used, 0, size));
+		for (int k = 0; k < count; k++)
+			values[k] *= sign;
+
+		return values;
+	}
+
+	/**
+	 * The evaluation of a range of rows, which gives the partial values of
+	 * all solutions over these rows.
+	 */
+	@SuppressWarnings("serial")
+	private class Rows extends RecursiveTask<double[]> {
+
+		/**
+		 * the packed solutions.
+		 */
+		private final long[] bits;
+
+		/**
+		 * the number of words of each variable, and the number of solutions.
+		 */
+		private final int words, count;
+
+		/**
+		 * whether each variable is selected by some solution.
+		 */
+		private final boolean[] used;
+
+		/**
+		 * the range [lo, hi) of rows.
+		 */
+		private final int lo, hi;
+
+		/**
+		 * Constructor for the Rows class.
+		 */
+		Rows(long[] bits, int words, int count, boolean[] used, int lo, int hi) {
+			this.bits = bits;
+			this.words = words;
+			this.count = count;
+			this.used = used;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected double[] compute() {
+
+			if (hi - lo > GRAIN) {
+				int mid = QBF.splitTriangle(lo, hi, size);
+				Rows right = new Rows(bits, words, count, used, mid, hi);
+				right.fork();
+				double[] values = new Rows(bits, words, count, used, lo, mid).compute();
+				double[] other = right.join();
+				for (int k = 0; k < count; k++)
+					values[k] += other[k];
+				return values;
+			}
+
+			double[] values = new double[count];
+			int tile = Math.max(64, TILE_BYTES / (8 * words));
+			int last = lo;
+			for (int i = lo; i < hi; i++) {
+				if (used[i])
+					last = Math.max(last, spanEnd[i]);
+			}
+			for (int j0 = lo; j0 < last; j0 += tile) {
+				int j1 = Math.min(j0 + tile, last);
+				for (int i = lo; i < hi; i++) {
+					if (!used[i])
+						continue;
+					double[] row = C[i];
+					int start = Math.max(Math.max(i, j0), spanStart[i]), end = Math.min(j1, spanEnd[i]);
+					int bi = i * words;
+					for (int j = start; j < end; j++) {
+						double c = row[j];
+						if (c == 0 || !used[j])
+							continue;
+						int bj = j * words;
+						for (int w = 0; w < words; w++) {
+							long m = bits[bi + w] & bits[bj + w];
+							int base = w << 6;
+							while (m != 0) {
+								values[base + Long.numberOfTrailingZeros(m)] += c;
+								m &= m - 1;
+							}
+						}
+					}
+				}
+			}
+
+			return values;
+		}
+
+	}
+
+	/**
+	 * A main method which compares the batch evaluation with the evaluation
+	 * of one solution at a time, over a random dense instance.
+	 *
+	 */
+	public static void main(String[] args) {
+
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 3000;
+		int count = (args.length > 1) ? Integer.parseInt(args[1]) : 256;
+		Random rng = new Random(0);
+
+		Double[][] A = new Double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++)
+				A[i][j] = (j >= i) ? (double) (rng.nextInt(21) - 10) : 0.0;
+		}
+		QBF_Inverse qbf = new QBF_Inverse(A);
+		List<Solution<Integer>> sols = new ArrayList<Solution<Integer>>();
+		for (int k = 0; k < count; k++) {
+			Solution<Integer> sol = new Solution<Integer>();
+			for (int i = 0; i < n; i++) {
+				if (rng.nextBoolean())
+					sol.add(i);
+			}
+			sols.add(sol);
+		}
+		QBF_Batch batch = new QBF_Batch(qbf);
+
+		/* one solution at a time, boxed and primitive */
+		int sample = Math.min(count, 8);
+		long startTime = System.nanoTime();
+		double[] expected = new double[sample];
+		for (int k = 0; k < sample; k++)
+			expected[k] = qbf.evaluate(sols.get(k));
+		System.out.println("QBF.evaluate:             " + (System.nanoTime() - startTime) / 1e3 / sample + " us/sol");
+		ForkJoinPool single = new ForkJoinPool(1);
+		batch.evaluate(sols.subList(0, 1), single);
+		startTime = System.nanoTime();
+		for (int k = 0; k < sample; k++)
+			batch.evaluate(sols.subList(k, k + 1), single);
+		System.out.println("batch of 1, 1 thread:     " + (System.nanoTime() - startTime) / 1e3 / sample + " us/sol");
+
+		/* the whole batch, with one thread and with the common pool */
+		for (ForkJoinPool pool : new ForkJoinPool[] { single, ForkJoinPool.commonPool() }) {
+			batch.evaluate(sols, pool);
+			startTime = System.nanoTime();
+			double[] values = batch.evaluate(sols, pool);
+			double micros = (System.nanoTime() - startTime) / 1e3 / count;
+			for (int k = 0; k < sample; k++) {
+				if (values[k] != expected[k])
+					throw new IllegalStateException("Solution " + k + ": " + values[k] + " != " + expected[k]);
+			}
+			System.out.println("batch of " + count + ", " + pool.getParallelism() + " thread(s): " + micros + " us/sol");
+		}
+		if (batch.evaluate(new ArrayList<Solution<Integer>>(), single).length != 0)
+			throw new IllegalStateException("An empty batch gave values");
+		single.shutdown();
+
+	}
+
+}
@@ -0,0 +1,346 @@
+package problems.qbf;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Upper bounds for the maximum of a QBF (Quadractic Binary Function --
+ * {@link QBF}), used to prove that a solution is optimal or to measure its
+ * optimality gap. Let c_ij = A[i][j] + A[j][i] for i != j. Two bounds are
+ * computed:
+ * 
+ * - the row-wise positive-part bound: each positive coupling c_ij is split
+ * between the rows of i and j, and f(x) <= sum_i max(0, A[i][i] + share of
+ * the positive couplings of row i). The shares start at one half and are
+ * moved toward rows whose total is negative, where they cost nothing. It
+ * takes O(n^2) time;
+ * 
+ * - the spectral bound: writing x = (1 + s)/2 with s in {-1,1}, f = K +
+ * s'.M.s for a matrix M of order n+1, so for any diagonal matrix D,
+ * f <= K + (n+1)*lambda_max(M + D) - trace(D). D is improved by subgradient
+ * steps. Each step takes O(n^3) time, so this bound is only computed for
+ * instances of at most {@link #SPECTRAL_LIMIT} variables.
+ * 
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Bound implements Callable<Double> {
+
+	/**
+	 * The largest dimension for which the spectral bound is computed.
+	 */
+	public static final int SPECTRAL_LIMIT = 200;
+
+	/**
+	 * The number of subgradient steps of the spectral bound.
+	 */
+	public static final int SPECTRAL_STEPS = 100;
+
+	/**
+	 * The QBF being bounded.
+	 */
+	protected final QBF ObjFunction;
+
+	/**
+	 * Constructor for the QBF_Bound class.
+	 * 
+	 * @param objFunction
+	 *            The QBF being bounded.
+	 */
+	public QBF_Bound(QBF objFunction) {
+		this.ObjFunction = objFunction;
+	}
+
+	/**
+	 * Computes the best of the available bounds. For a {@link QBF_Inverse},
+	 * which is minimized, the result is a lower bound of the minimum.
+	 * 
+	 * @return The bound, in the orientation of the QBF.
+	 */
+	@Override
+	public Double call() {
+
+		double ub = positivePartBound();
+		if (ObjFunction.getDomainSize() <= SPECTRAL_LIMIT)
+			ub = Math.min(ub, spectralBound(SPECTRAL_STEPS));
+
+		return (ObjFunction instanceof QBF_Inverse) ? -ub : ub;
+
+	}
+
+	/**
+	 * Computes the row-wise positive-part bound of the maximum of the QBF.
+	 * 
+	 * @return An upper bound of the maximum.
+	 */
+	public double positivePartBound() {
+
+		int n = ObjFunction.getDomainSize();
+		double[][] c = ObjFunction.getCouplings();
+
+		/* rows with half of each positive coupling */
+		double[] row = new double[n];
+		for (int i = 0; i < n; i++) {
+			row[i] = c[i][i];
+			for (int j = 0; j < n; j++) {
+				if (j != i && c[i][j] > 0)
+					row[i] += 0.5 * c[i][j];
+			}
+		}
+
+		/* move shares from positive rows to negative rows */
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n && row[i] > 0; j++) {
+				if (c[i][j] > 0 && row[j] < 0) {
+					double m = Math.min(0.5 * c[i][j], Math.min(row[i], -row[j]));
+					row[i] -= m;
+					row[j] += m;
+				}
+			}
+			for (int j = i + 1; j < n && row[i] < 0; j++) {
+				if (c[i][j] > 0 && row[j] > 0) {
+					double m = Math.min(0.5 * c[i][j], Math.min(row[j], -row[i]));
+					row[j] -= m;
+					row[i] += m;
+				}
+			}
+		}
+
+		double ub = 0.0;
+		for (int i = 0; i < n; i++) {
+			if (row[i] > 0)
+				ub += row[i];
+		}
+
+		return ub;
+	}
+
+	/**
+	 * Computes the spectral bound of the maximum of the QBF. The diagonal
+	 * perturbation is improved by Polyak steps toward the value of the empty
+	 * solution, which is halved whenever the bound stops improving.
+	 * 
+	 * @param steps
+	 *            The number of subgradient steps.
+	 * @return An upper bound of the maximum.
+	 */
+	public double spectralBound(int steps) {
+
+		int n = ObjFunction.getDomainSize();
+		double[][] c = ObjFunction.getCouplings();
+
+		/* f = K + s'.M.s with s_0 = 1 homogenizing the linear terms */
+		int m = n + 1;
+		double[][] M = new double[m][m];
+		double K = 0.0;
+		for (int i = 0; i < n; i++) {
+			double b = c[i][i] / 2;
+			K += c[i][i] / 2;
+			for (int j = 0; j < n; j++) {
+				if (j == i)
+					continue;
+				b += c[i][j] / 4;
+				if (j > i)
+					K += c[i][j] / 4;
+				M[i + 1][j + 1] = c[i][j] / 8;
+			}
+			M[0][i + 1] = M[i + 1][0] = b / 2;
+		}
+
+		double[] d = new double[m], g = new double[m], v = new double[m];
+		double minBound = Double.POSITIVE_INFINITY, mu = 1.0;
+		int stall = 0;
+		for (int it = 0; it < steps; it++) {
+			double trace = 0.0;
+			for (int i = 0; i < m; i++) {
+				M[i][i] = d[i];
+				trace += d[i];
+			}
+			double bound = K + m * largestEigenvalue(M, v) - trace + 1e-6 * (1.0 + Math.abs(K));
+			if (bound < minBound) {
+				minBound = bound;
+				stall = 0;
+			} else if (++stall >= 5) {
+				mu /= 2;
+				stall = 0;
+			}
+			double norm = 0.0;
+			for (int i = 0; i < m; i++) {
+				g[i] = m * v[i] * v[i] - 1;
+				norm += g[i] * g[i];
+			}
+			if (norm < 1e-12)
+				break;
+			double step = mu * Math.max(bound, 0.0) / norm;
+			for (int i = 0; i < m; i++)
+				d[i] -= step * g[i];
+		}
+
+		return minBound;
+	}
+
+	/**
+	 * Computes the largest eigenvalue of a symmetric matrix and an associated
+	 * eigenvector, by Householder reduction to tridiagonal form followed by
+	 * the implicit QL method (adapted from the public domain JAMA package).
+	 *
+	 * @param a
+	 *            The symmetric matrix, which is not modified.
+	 * @param vec
+	 *            Output: a unit eigenvector of the largest eigenvalue.
+	 * @return The largest eigenvalue.
+	 */
+	public static double largestEigenvalue(double[][] a, double[] vec) {
+
+		int n = a.length;
+		double[][] V = new double[n][];
+		for (int i = 0; i < n; i++)
+			V[i] = a[i].clone();
+		double[] d = new double[n], e = new double[n];
+
+		/* Householder reduction to tridiagonal form */
+		for (int j = 0; j < n; j++)
+			d[j] = V[n - 1][j];
+		for (int i = n - 1; i > 0; i--) {
+			double scale = 0.0, h = 0.0;
+			for (int k = 0; k < i; k++)
+				scale += Math.abs(d[k]);
+			if (scale == 0.0) {
+				e[i] = d[i - 1];
+				for (int j = 0; j < i; j++) {
+					d[j] = V[i - 1][j];
+					V[i][j] = 0.0;
+					V[j][i] = 0.0;
+				}
+			} else {
+				for (int k = 0; k < i; k++) {
+					d[k] /= scale;
+					h += d[k] * d[k];
+				}
+				double f = d[i - 1], g = Math.sqrt(h);
+				if (f > 0)
+					g = -g;
+				e[i] = scale * g;
+				h = h - f * g;
+				d[i - 1] = f - g;
+				for (int j = 0; j < i; j++)
+					e[j] = 0.0;
+				for (int j = 0; j < i; j++) {
+					f = d[j];
+					V[j][i] = f;
+					g = e[j] + V[j][j] * f;
+					for (int k = j + 1; k <= i - 1; k++) {
+						g += V[k][j] * d[k];
+						e[k] += V[k][j] * f;
+					}
+					e[j] = g;
+				}
+				f = 0.0;
+				for (int j = 0; j < i; j++) {
+					e[j] /= h;
+					f += e[j] * d[j];
+				}
+				double hh = f / (h + h);
+				for (int j = 0; j < i; j++)
+					e[j] -= hh * d[j];
+				for (int j = 0; j < i; j++) {
+					f = d[j];
+					g = e[j];
+					for (int k = j; k <= i - 1; k++)
+						V[k][j] -= (f * e[k] + g * d[k]);
+					d[j] = V[i - 1][j];
+					V[i][j] = 0.0;
+				}
+			}
+			d[i] = h;
+		}
+		for (int i = 0; i < n - 1; i++) {
+			V[n - 1][i] = V[i][i];
+			V[i][i] = 1.0;
+			double h = d[i + 1];
+			if (h != 0.0) {
+				for (int k = 0; k <= i; k++)
+					d[k] = V[k][i + 1] / h;
+				for (int j = 0; j <= i; j++) {
+					double g = 0.0;
+					for (int k = 0; k <= i; k++)
+						g += V[k][i + 1] * V[k][j];
+					for (int k = 0; k <= i; k++)
+						V[k][j] -= g * d[k];
+				}
+			}
+			for (int k = 0; k <= i; k++)
+				V[k][i + 1] = 0.0;
+		}
+		for (int j = 0; j < n; j++) {
+			d[j] = V[n - 1][j];
+			V[n - 1][j] = 0.0;
+		}
+		V[n - 1][n - 1] = 1.0;
+		e[0] = 0.0;
+
+		/* implicit QL iterations on the tridiagonal matrix */
+		for (int i = 1; i < n; i++)
+			e[i - 1] = e[i];
+		e[n - 1] = 0.0;
+		double f = 0.0, tst1 = 0.0, eps = Math.ulp(1.0);
+		for (int l = 0; l < n; l++) {
+			tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+			int m = l;
+			while (m < n) {
+				if (Math.abs(e[m]) <= eps * tst1)
+					break;
+				m++;
+			}
+			if (m > l) {
+				do {
+					double g = d[l];
+					double p = (d[l + 1] - g) / (2.0 * e[l]);
+					double r = Math.hypot(p, 1.0);
+					if (p < 0)
+						r = -r;
+					d[l] = e[l] / (p + r);
+					d[l + 1] = e[l] * (p + r);
+					double dl1 = d[l + 1], h = g - d[l];
+					for (int i = l + 2; i < n; i++)
+						d[i] -= h;
+					f = f + h;
+					p = d[m];
+					double cs = 1.0, c2 = cs, c3 = cs, el1 = e[l + 1], s = 0.0, s2 = 0.0;
+					for (int i = m - 1; i >= l; i--) {
+						c3 = c2;
+						c2 = cs;
+						s2 = s;
+						g = cs * e[i];
+						h = cs * p;
+						r = Math.hypot(p, e[i]);
+						e[i + 1] = s * r;
+						s = e[i] / r;
+						cs = p / r;
+						p = cs * d[i] - s * g;
+						d[i + 1] = h + s * (cs * g + s * d[i]);
+						for (int k = 0; k < n; k++) {
+							h = V[k][i + 1];
+							V[k][i + 1] = s * V[k][i] + cs * h;
+							V[k][i] = cs * V[k][i] - s * h;
+						}
+					}
+					p = -s * s2 * c3 * el1 * e[l] / dl1;
+					e[l] = s * p;
+					d[l] = cs * p;
+				} while (Math.abs(e[l]) > eps * tst1);
+			}
+			d[l] = d[l] + f;
+			e[l] = 0.0;
+		}
+
+		int max = 0;
+		for (int i = 1; i < n; i++) {
+			if (d[i] > d[max])
+				max = i;
+		}
+		for (int k = 0; k < n; k++)
+			vec[k] = V[k][max];
+
+		return d[max];
+	}
+
+}
@@ -0,0 +1,198 @@
+package problems.qbf;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Memory-bounded LRU (least recently used) cache of QBF instances, for
+ * solvers which serve many requests over the same matrices. Each entry keeps
+ * everything a search derives from the instance and can share: the
+ * {@link QBF_Reduction} of the inverse QBF, the matrix of couplings of the
+ * reduced QBF, its penalty scale and the computation of its {@link QBF_Bound}. Entries are evicted,
+ * least recently used first, when the estimated size of all entries exceeds
+ * the capacity in bytes.
+ *
+ * Instances are loaded outside the lock of the cache, so a slow load does
+ * not block requests for other instances; two requests missing the same
+ * instance at the same time may both load it, and the first one cached is
+ * kept.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Cache {
+
+	/**
+	 * An instance loaded into the cache, with its derived structures.
+	 */
+	public static class Entry {
+
+		/**
+		 * The reduction of the inverse QBF.
+		 */
+		public final QBF_Reduction reduction;
+
+		/**
+		 * The matrix of couplings of the reduced QBF, shared by the
+		 * incremental evaluators of all searches.
+		 */
+		public final double[][] couplings;
+
+		/**
+		 * The mean absolute row sum of the reduced QBF, the default weight of
+		 * the frequency penalty of a search.
+		 */
+		public final Double penalty;
+
+		/**
+		 * The estimated size of the entry, in bytes.
+		 */
+		public final long bytes;
+
+		/**
+		 * The computation of the lower bound of the reduced inverse QBF, or
+		 * null until requested.
+		 */
+		private CompletableFuture<Double> lowerBound;
+
+		/**
+		 * Constructor for the Entry class, which also builds the matrix of
+		 * couplings and computes the penalty scale of the reduced QBF.
+		 *
+		 * @param reduction
+		 *            The reduction of the inverse QBF.
+		 */
+		Entry(QBF_Reduction reduction) {
+			this.reduction = reduction;
+			this.couplings = reduction.reduced.getCouplings();
+			this.penalty = reduction.reduced.meanAbsoluteRowSum();
+			long n = reduction.original.getDomainSize(), m = reduction.reduced.getDomainSize();
+			/* boxed matrices (reference plus Double) and the primitive couplings */
+			this.bytes = 20 * n * n + 20 * m * m + 8 * m * m + 16 * (n + m) + 1024;
+		}
+
+		/**
+		 * Gives the lower bound of the reduced inverse QBF, which the first
+		 * caller starts computing asynchronously (see
+		 * {@link CompletableFuture#supplyAsync(java.util.function.Supplier)})
+		 * and which is then shared by all searches. No caller waits for the
+		 * computation, nor holds the lock of the entry while it runs.
+		 *
+		 * @return The future lower bound.
+		 */
+		public synchronized CompletableFuture<Double> getLowerBound() {
+			if (lowerBound == null)
+				lowerBound = CompletableFuture.supplyAsync(new QBF_Bound(reduction.reduced)::call);
+			return lowerBound;
+		}
+
+	}
+
+	/**
+	 * The capacity of the cache, in bytes.
+	 */
+	protected final long capacity;
+
+	/**
+	 * The directory of the instance files.
+	 */
+	protected final String directory;
+
+	/**
+	 * The entries, in access order.
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/**
+	 * The estimated size of all entries, in bytes.
+	 */
+	private long bytes;
+
+	/**
+	 * Statistics of the cache.
+	 */
+	private long hits, misses, evictions;
+
+	/**
+	 * Constructor for the QBF_Cache class.
+	 *
+	 * @param directory
+	 *            The directory of the instance files.
+	 * @param capacity
+	 *            The capacity of the cache, in bytes.
+	 */
+	public QBF_Cache(String directory, long capacity) {
+		this.directory = directory;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Gives the entry of an instance, loading it if it is not cached.
+	 *
+	 * @param id
+	 *            The instance identifier, which is the name of its file in
+	 *            the directory of the cache.
+	 * @return The entry of the instance.
+	 * @throws IOException
+	 *             If the instance cannot be read.
+	 * @throws IllegalArgumentException
+	 *             If the identifier is not a plain file name.
+	 */
+	public Entry get(String id) throws IOException {
+
+		if (id == null || !id.matches("[A-Za-z0-9_.-]+") || id.startsWith("."))
+			throw new IllegalArgumentException("Invalid instance id: " + id);
+
+		synchronized (this) {
+			Entry entry = entries.get(id);
+			if (entry != null) {
+				hits++;
+				return entry;
+			}
+			misses++;
+		}
+
+		Entry loaded = new Entry(new QBF_Reduction(new QBF_Inverse(directory + "/" + id)));
+
+		synchronized (this) {
+			Entry entry = entries.get(id);
+			if (entry != null)
+				return entry;
+			entries.put(id, loaded);
+			bytes += loaded.bytes;
+			evict();
+		}
+
+		return loaded;
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache fits its
+	 * capacity. The most recent entry is kept even if it alone exceeds the
+	 * capacity.
+	 */
+	private void evict() {
+
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (bytes > capacity && entries.size() > 1) {
+			bytes -= it.next().getValue().bytes;
+			it.remove();
+			evictions++;
+		}
+
+	}
+
+	/**
+	 * Gives a summary of the cache usage.
+	 *
+	 * @return The number of entries, their size and the hit, miss and
+	 *         eviction counts.
+	 */
+	public synchronized String getStats() {
+		return "entries=" + entries.size() + " bytes=" + bytes + " capacity=" + capacity + " hits=" + hits
+				+ " misses=" + misses + " evictions=" + evictions;
+	}
+
+}
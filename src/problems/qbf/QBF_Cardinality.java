@@ -0,0 +1,107 @@
+package problems.qbf;
+
+/**
+ * Incremental evaluator of a QBF (Quadractic Binary Function -- {@link QBF})
+ * with a cardinality constraint: the number of selected variables must lie
+ * between {@link #minCount} and {@link #maxCount}, so that "at most k" is
+ * [0, k] and "exactly k" is [k, k]. Since the evaluator already keeps the
+ * number of selected variables, the slack of the constraint and its
+ * violation are known in O(1), and so is the feasibility of each move:
+ * insertions need slack above, removals need slack below and exchanges keep
+ * the cardinality.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Cardinality extends QBF_Incremental {
+
+	/**
+	 * The minimum number of selected variables.
+	 */
+	public final int minCount;
+
+	/**
+	 * The maximum number of selected variables.
+	 */
+	public final int maxCount;
+
+	/**
+	 * Constructor for the QBF_Cardinality class. The current assignment is
+	 * the empty one.
+	 *
+	 * @param objFunction
+	 *            The QBF being evaluated.
+	 * @param minCount
+	 *            The minimum number of selected variables.
+	 * @param maxCount
+	 *            The maximum number of selected variables.
+	 */
+	public QBF_Cardinality(QBF objFunction, Integer minCount, Integer maxCount) {
+		super(objFunction);
+		if (minCount < 0 || minCount > maxCount || minCount > objFunction.getDomainSize())
+			throw new IllegalArgumentException("Invalid cardinality bounds [" + minCount + ", " + maxCount + "]");
+		this.minCount = minCount;
+		this.maxCount = maxCount;
+	}
+
+	/**
+	 * Gives the number of variables which can still be selected.
+	 *
+	 * @return The upper slack of the constraint, negative if it is violated.
+	 */
+	public int getSlack() {
+		return maxCount - count;
+	}
+
+	/**
+	 * Gives the violation of the constraint for a given number of selected
+	 * variables.
+	 *
+	 * @param selectedCount
+	 *            The number of selected variables.
+	 * @return The distance from the number to the bounds, zero if feasible.
+	 */
+	public int getViolation(int selectedCount) {
+		if (selectedCount > maxCount)
+			return selectedCount - maxCount;
+		if (selectedCount < minCount)
+			return minCount - selectedCount;
+		return 0;
+	}
+
+	/**
+	 * Gives the violation of the constraint by the current assignment.
+	 *
+	 * @return The violation, zero if the current assignment is feasible.
+	 */
+	public int getViolation() {
+		return getViolation(count);
+	}
+
+	/**
+	 * Tells whether the current assignment satisfies the constraint.
+	 *
+	 * @return true if the current assignment is feasible.
+	 */
+	public boolean isFeasible() {
+		return count >= minCount && count <= maxCount;
+	}
+
+	/**
+	 * Tells whether an insertion keeps the current assignment feasible.
+	 *
+	 * @return true if a variable can be inserted.
+	 */
+	public boolean canInsert() {
+		return count < maxCount;
+	}
+
+	/**
+	 * Tells whether a removal keeps the current assignment feasible.
+	 *
+	 * @return true if a variable can be removed.
+	 */
+	public boolean canRemove() {
+		return count > minCount;
+	}
+
+}
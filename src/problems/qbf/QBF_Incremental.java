@@ -0,0 +1,314 @@
+package problems.qbf;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import problems.IntEvaluator;
+import solutions.Solution;
+
+/**
+ * Incremental evaluator of a QBF (Quadractic Binary Function -- {@link QBF}),
+ * which keeps the current assignment x and the gain vector
+ * g[i] = C[i][i] + sum_{j != i} C[i][j]*x_j, where C is the symmetric matrix
+ * of couplings. The variation of inserting or removing a variable is then
+ * +g[i] or -g[i], and of exchanging in and out g[in] - g[out] - C[in][out],
+ * all in O(1). A flip updates the gain vector with a walk on one row of C,
+ * in O(n), restricted to the range of the row which holds its nonzero
+ * couplings, so that it is O(bandwidth) for a banded matrix. When built
+ * from a {@link QBF_Inverse}, all costs are negated, as in the QBF itself.
+ *
+ * The matrix is shared with the QBF, so many incremental evaluators (e.g. one
+ * per search thread) can work over the same QBF.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Incremental implements IntEvaluator {
+
+	/**
+	 * The QBF being evaluated.
+	 */
+	public final QBF ObjFunction;
+
+	/**
+	 * Dimension of the domain.
+	 */
+	protected final int size;
+
+	/**
+	 * The symmetric matrix of couplings of the QBF.
+	 */
+	protected final double[][] C;
+
+	/**
+	 * The range [spanStart, spanEnd) of columns of each row of C which holds
+	 * its nonzero couplings.
+	 */
+	protected final int[] spanStart, spanEnd;
+
+	/**
+	 * 1 for a QBF, -1 for a {@link QBF_Inverse}.
+	 */
+	protected final double sign;
+
+	/**
+	 * The current assignment.
+	 */
+	protected final boolean[] x;
+
+	/**
+	 * The gain vector of the current assignment.
+	 */
+	protected final double[] gain;
+
+	/**
+	 * The value of the QBF (not negated) for the current assignment.
+	 */
+	protected double value;
+
+	/**
+	 * The number of selected variables.
+	 */
+	protected int count;
+
+	/**
+	 * Constructor for the QBF_Incremental class. The current assignment is
+	 * the empty one.
+	 *
+	 * @param objFunction
+	 *            The QBF being evaluated.
+	 */
+	public QBF_Incremental(QBF objFunction) {
+		this.ObjFunction = objFunction;
+		this.size = objFunction.getDomainSize();
+		this.C = objFunction.getCouplings();
+		int[][] spans = objFunction.getCouplingSpans();
+		this.spanStart = spans[0];
+		this.spanEnd = spans[1];
+		this.sign = (objFunction instanceof QBF_Inverse) ? -1.0 : 1.0;
+		this.x = new boolean[size];
+		this.gain = new double[size];
+		reset();
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#getDomainSize()
+	 */
+	@Override
+	public int getDomainSize() {
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#getCost()
+	 */
+	@Override
+	public double getCost() {
+		return sign * value;
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#isSelected(int)
+	 */
+	@Override
+	public boolean isSelected(int elem) {
+		return x[elem];
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#getSelectedCount()
+	 */
+	@Override
+	public int getSelectedCount() {
+		return count;
+	}
+
+	/**
+	 * Gives the gain of a variable, i.e., the variation of the QBF (not
+	 * negated) of setting it to one, given the other variables.
+	 *
+	 * @param i
+	 *            Index of the variable.
+	 * @return The gain of the variable.
+	 */
+	public double getGain(int i) {
+		return gain[i];
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#evaluateInsertionCost(int)
+	 */
+	@Override
+	public double evaluateInsertionCost(int elem) {
+		return x[elem] ? 0.0 : sign * gain[elem];
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#evaluateRemovalCost(int)
+	 */
+	@Override
+	public double evaluateRemovalCost(int elem) {
+		return x[elem] ? -sign * gain[elem] : 0.0;
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#evaluateExchangeCost(int, int)
+	 */
+	@Override
+	public double evaluateExchangeCost(int elemIn, int elemOut) {
+
+		if (elemIn == elemOut)
+			return 0.0;
+		if (x[elemIn])
+			return evaluateRemovalCost(elemOut);
+		if (!x[elemOut])
+			return evaluateInsertionCost(elemIn);
+
+		return sign * (gain[elemIn] - gain[elemOut] - C[elemIn][elemOut]);
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#flip(int)
+	 */
+	@Override
+	public void flip(int elem) {
+
+		double[] row = C[elem];
+		double d;
+		if (x[elem]) {
+			value -= gain[elem];
+			count--;
+			d = -1.0;
+		} else {
+			value += gain[elem];
+			count++;
+			d = 1.0;
+		}
+		x[elem] = !x[elem];
+		double g = gain[elem];
+		for (int j = spanStart[elem], end = spanEnd[elem]; j < end; j++)
+			gain[j] += d * row[j];
+		gain[elem] = g;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#reset()
+	 */
+	@Override
+	public void reset() {
+		Arrays.fill(x, false);
+		for (int i = 0; i < size; i++)
+			gain[i] = C[i][i];
+		value = 0.0;
+		count = 0;
+	}
+
+	/**
+	 * Repairs the gain vector and the value after the coefficient A[i][j] of
+	 * the QBF changed, in O(1).
+	 * 
+	 * @param i
+	 *            Row of the coefficient.
+	 * @param j
+	 *            Column of the coefficient.
+	 * @param delta
+	 *            The variation of the coefficient, as returned by
+	 *            {@link QBF#setCoefficient(int, int, double)}.
+	 */
+	public void repair(int i, int j, double delta) {
+
+		if (i == j) {
+			gain[i] += delta;
+			if (x[i])
+				value += delta;
+		} else {
+			if (x[j])
+				gain[i] += delta;
+			if (x[i])
+				gain[j] += delta;
+			if (x[i] && x[j])
+				value += delta;
+		}
+
+	}
+
+	/**
+	 * Sets the current assignment to the given solution.
+	 *
+	 * @param sol
+	 *            The solution.
+	 */
+	public void setSolution(Solution<Integer> sol) {
+		reset();
+		for (Integer i : sol)
+			flip(i);
+	}
+
+	/**
+	 * Creates a solution from the current assignment, with its cost.
+	 *
+	 * @return A new solution.
+	 */
+	public Solution<Integer> toSolution() {
+
+		Solution<Integer> sol = new Solution<Integer>();
+		for (int i = 0; i < size; i++) {
+			if (x[i])
+				sol.add(i);
+		}
+		sol.cost = getCost();
+
+		return sol;
+	}
+
+	/**
+	 * Copies the current assignment to an array.
+	 *
+	 * @param dest
+	 *            The array the assignment is copied to.
+	 */
+	public void copyAssignment(boolean[] dest) {
+		System.arraycopy(x, 0, dest, 0, size);
+	}
+
+	/**
+	 * Writes the current assignment, gain vector and value, so that the
+	 * evaluator can be restored without recomputing the gains.
+	 *
+	 * @param out
+	 *            The stream the state is written to.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	public void writeState(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeBoolean(x[i]);
+			out.writeDouble(gain[i]);
+		}
+		out.writeDouble(value);
+		out.writeInt(count);
+	}
+
+	/**
+	 * Restores a state written by {@link #writeState(DataOutputStream)}.
+	 *
+	 * @param in
+	 *            The stream the state is read from.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	public void readState(DataInputStream in) throws IOException {
+		if (in.readInt() != size)
+			throw new IOException("Checkpoint of a QBF of another size");
+		for (int i = 0; i < size; i++) {
+			x[i] = in.readBoolean();
+			gain[i] = in.readDouble();
+		}
+		value = in.readDouble();
+		count = in.readInt();
+	}
+
+}
@@ -24,6 +24,17 @@ public class QBF_Inverse extends QBF {
 		super(filename);
 	}
 
+	/**
+	 * Constructor for the QBF_Inverse class from a given matrix of
+	 * coefficients.
+	 * 
+	 * @param A
+	 *            The upper triangular matrix of coefficients.
+	 */
+	public QBF_Inverse(Double[][] A) {
+		super(A);
+	}
+
 
 	/* (non-Javadoc)
 	 * @see problems.qbf.QBF#evaluate()
@@ -0,0 +1,204 @@
+package problems.qbf;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import solutions.Solution;
+
+/**
+ * Preprocessing of a QBF (maximization) which fixes variables by persistency
+ * rules. Let the coupling of variables i and j be c_ij = A[i][j] + A[j][i].
+ * Whatever the values of the other variables, setting x_i = 1 changes the
+ * objective by A[i][i] plus the couplings of i with the selected variables.
+ * Hence, if A[i][i] plus all positive couplings of i is not positive, x_i = 0
+ * is optimal, and if A[i][i] plus all negative couplings of i is not
+ * negative, x_i = 1 is optimal. Fixing a variable to zero removes its
+ * couplings, and fixing it to one moves them to the diagonal of its
+ * neighbors, so the rules are applied until no variable can be fixed.
+ *
+ * The free variables form a reduced QBF, whose solutions are mapped back to
+ * the original variables by {@link #toOriginal(Solution)}.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Reduction {
+
+	/**
+	 * The QBF being reduced.
+	 */
+	public final QBF original;
+
+	/**
+	 * The reduced QBF, of the same class (maximization or inverse) as the
+	 * original one.
+	 */
+	public final QBF reduced;
+
+	/**
+	 * The original index of each variable of the reduced QBF.
+	 */
+	public final int[] index;
+
+	/**
+	 * The value of each original variable: 0 or 1 when fixed, -1 when free.
+	 */
+	public final byte[] fixed;
+
+	/**
+	 * The value of the original QBF (maximization) due to the variables fixed
+	 * to one, which is not accounted by the reduced QBF.
+	 */
+	public final Double offset;
+
+	/**
+	 * Constructor for the QBF_Reduction class, which applies the persistency
+	 * rules to a QBF.
+	 *
+	 * @param original
+	 *            The QBF being reduced.
+	 */
+	public QBF_Reduction(QBF original) {
+
+		this.original = original;
+		int n = original.getDomainSize();
+		Double[][] A = original.A;
+
+		/* linear terms and sums of positive and negative couplings */
+		double[] lin = new double[n], pos = new double[n], neg = new double[n];
+		for (int i = 0; i < n; i++) {
+			lin[i] = A[i][i];
+			for (int j = 0; j < n; j++) {
+				if (j == i)
+					continue;
+				double c = A[i][j] + A[j][i];
+				if (c > 0)
+					pos[i] += c;
+				else
+					neg[i] += c;
+			}
+		}
+
+		fixed = new byte[n];
+		Arrays.fill(fixed, (byte) -1);
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		boolean[] queued = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			queue.add(i);
+			queued[i] = true;
+		}
+		double value = 0.0;
+		while (!queue.isEmpty()) {
+			int i = queue.poll();
+			queued[i] = false;
+			if (fixed[i] >= 0)
+				continue;
+			byte v;
+			if (lin[i] + pos[i] <= 0)
+				v = 0;
+			else if (lin[i] + neg[i] >= 0)
+				v = 1;
+			else
+				continue;
+			fixed[i] = v;
+			if (v == 1)
+				value += lin[i];
+			/* update the neighbors, which may now satisfy a rule */
+			for (int j = 0; j < n; j++) {
+				if (fixed[j] >= 0)
+					continue;
+				double c = A[i][j] + A[j][i];
+				if (c == 0)
+					continue;
+				if (c > 0)
+					pos[j] -= c;
+				else
+					neg[j] -= c;
+				if (v == 1)
+					lin[j] += c;
+				if (!queued[j]) {
+					queue.add(j);
+					queued[j] = true;
+				}
+			}
+		}
+		offset = value;
+
+		/* build the reduced upper triangular matrix */
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (fixed[i] < 0)
+				m++;
+		}
+		index = new int[m];
+		for (int i = 0, k = 0; i < n; i++) {
+			if (fixed[i] < 0)
+				index[k++] = i;
+		}
+		Double[][] B = new Double[m][m];
+		for (int a = 0; a < m; a++) {
+			B[a][a] = lin[index[a]];
+			for (int b = a + 1; b < m; b++) {
+				B[a][b] = A[index[a]][index[b]] + A[index[b]][index[a]];
+				B[b][a] = 0.0;
+			}
+		}
+		reduced = (original instanceof QBF_Inverse) ? new QBF_Inverse(B) : new QBF(B);
+
+	}
+
+	/**
+	 * Gives the number of variables fixed by the preprocessing.
+	 *
+	 * @return The number of fixed variables.
+	 */
+	public int getFixedCount() {
+		return fixed.length - index.length;
+	}
+
+	/**
+	 * Gives the index in the reduced QBF of an original variable.
+	 * 
+	 * @param i
+	 *            Index of the original variable.
+	 * @return The index of the variable in the reduced QBF, or -1 if the
+	 *         variable was fixed.
+	 */
+	public int toReduced(int i) {
+		return (fixed[i] < 0) ? Arrays.binarySearch(index, i) : -1;
+	}
+
+	/**
+	 * Maps a solution of the reduced QBF to the original variables, adding
+	 * the variables fixed to one. The cost is converted accordingly.
+	 *
+	 * @param sol
+	 *            A solution of the reduced QBF.
+	 * @return The corresponding solution of the original QBF.
+	 */
+	public Solution<Integer> toOriginal(Solution<Integer> sol) {
+
+		Solution<Integer> orig = new Solution<Integer>();
+		for (Integer a : sol)
+			orig.add(index[a]);
+		for (int i = 0; i < fixed.length; i++) {
+			if (fixed[i] == 1)
+				orig.add(i);
+		}
+		orig.cost = toOriginalCost(sol.cost);
+
+		return orig;
+	}
+
+	/**
+	 * Converts a cost of the reduced QBF, e.g. a bound, to the original QBF
+	 * by adding the value of the variables fixed to one.
+	 *
+	 * @param cost
+	 *            A cost of the reduced QBF.
+	 * @return The corresponding cost of the original QBF.
+	 */
+	public double toOriginalCost(double cost) {
+		return (reduced instanceof QBF_Inverse) ? cost - offset : cost + offset;
+	}
+
+}
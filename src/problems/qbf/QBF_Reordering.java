@@ -0,0 +1,336 @@
+package problems.qbf;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import solutions.Solution;
+
+/**
+ * Reordering of the variables of a QBF (Quadractic Binary Function --
+ * {@link QBF}) by the reverse Cuthill-McKee algorithm over the coupling graph,
+ * in which variables i and j are adjacent if c_ij = A[i][j] + A[j][i] is not
+ * zero. Each connected component is ordered by a breadth-first search from a
+ * pseudo-peripheral variable, visiting neighbors by increasing degree, and
+ * the resulting order is reversed. For sparse instances this narrows the
+ * band of the matrix, so that the row walks of an incremental evaluator
+ * ({@link QBF_Incremental}) touch a short contiguous range of memory.
+ *
+ * The reordered QBF is searched instead of the original one, and its
+ * solutions are mapped back by {@link #toOriginal(Solution)}.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Reordering {
+
+	/**
+	 * The QBF being reordered.
+	 */
+	public final QBF original;
+
+	/**
+	 * The reordered QBF, of the same class (maximization or inverse) as the
+	 * original one.
+	 */
+	public final QBF reordered;
+
+	/**
+	 * The original index of each variable of the reordered QBF.
+	 */
+	public final int[] order;
+
+	/**
+	 * The index in the reordered QBF of each original variable.
+	 */
+	public final int[] position;
+
+	/**
+	 * Constructor for the QBF_Reordering class, which computes the reverse
+	 * Cuthill-McKee order of a QBF.
+	 *
+	 * @param original
+	 *            The QBF being reordered.
+	 */
+	public QBF_Reordering(QBF original) {
+
+		this.original = original;
+		int n = original.getDomainSize();
+		Double[][] A = original.A;
+
+		/* adjacency lists of the coupling graph */
+		int[] degree = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				if (A[i][j] + A[j][i] != 0) {
+					degree[i]++;
+					degree[j]++;
+				}
+			}
+		}
+		int[][] adj = new int[n][];
+		for (int i = 0; i < n; i++)
+			adj[i] = new int[degree[i]];
+		int[] fill = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				if (A[i][j] + A[j][i] != 0) {
+					adj[i][fill[i]++] = j;
+					adj[j][fill[j]++] = i;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++)
+			sortByDegree(adj[i], degree);
+
+		/* Cuthill-McKee order of each component */
+		int[] cm = new int[n];
+		boolean[] visited = new boolean[n];
+		int[] level = new int[n];
+		Arrays.fill(level, -1);
+		int[] queue = new int[n];
+		int placed = 0;
+		for (int s = 0; s < n; s++) {
+			if (visited[s])
+				continue;
+			int root = peripheral(s, adj, degree, level, queue);
+			visited[root] = true;
+			cm[placed] = root;
+			for (int head = placed++; head < placed; head++) {
+				for (int j : adj[cm[head]]) {
+					if (!visited[j]) {
+						visited[j] = true;
+						cm[placed++] = j;
+					}
+				}
+			}
+		}
+
+		order = new int[n];
+		position = new int[n];
+		for (int k = 0; k < n; k++) {
+			order[k] = cm[n - 1 - k];
+			position[order[k]] = k;
+		}
+
+		/* build the reordered upper triangular matrix */
+		Double[][] B = new Double[n][n];
+		for (Double[] row : B)
+			Arrays.fill(row, 0.0);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				int a = Math.min(position[i], position[j]), b = Math.max(position[i], position[j]);
+				B[a][b] += A[i][j];
+			}
+		}
+		reordered = (original instanceof QBF_Inverse) ? new QBF_Inverse(B) : new QBF(B);
+
+	}
+
+	/**
+	 * Finds a pseudo-peripheral variable of the component of a variable:
+	 * starting from the variable of minimum degree of the component, a
+	 * breadth-first search is repeated from a variable of minimum degree in
+	 * the last level while the depth of the search increases. The work
+	 * arrays are shared by all components and only the entries of the
+	 * component are touched, so that the work of a component depends on its
+	 * size alone, whatever the number of components.
+	 *
+	 * @param s
+	 *            A variable of the component.
+	 * @param adj
+	 *            The adjacency lists of the coupling graph.
+	 * @param degree
+	 *            The degree of each variable.
+	 * @param level
+	 *            Work array for the levels of the search, all -1 on entry
+	 *            and on return.
+	 * @param queue
+	 *            Work array for the queue of the search.
+	 * @return A pseudo-peripheral variable.
+	 */
+	private static int peripheral(int s, int[][] adj, int[] degree, int[] level, int[] queue) {
+
+		int size = bfs(s, adj, level, queue);
+		int root = s;
+		for (int k = 0; k < size; k++) {
+			if (degree[queue[k]] < degree[root])
+				root = queue[k];
+			level[queue[k]] = -1;
+		}
+
+		int depth = -1;
+		while (true) {
+			size = bfs(root, adj, level, queue);
+			int last = level[queue[size - 1]];
+			int next = queue[size - 1];
+			for (int k = size - 1; k >= 0 && level[queue[k]] == last; k--) {
+				if (degree[queue[k]] < degree[next])
+					next = queue[k];
+			}
+			for (int k = 0; k < size; k++)
+				level[queue[k]] = -1;
+			if (last <= depth || next == root)
+				return root;
+			depth = last;
+			root = next;
+		}
+
+	}
+
+	/**
+	 * Breadth-first search over the coupling graph.
+	 *
+	 * @param root
+	 *            The variable the search starts from.
+	 * @param adj
+	 *            The adjacency lists of the coupling graph.
+	 * @param level
+	 *            Receives the level of each variable reached; the other
+	 *            entries must be -1.
+	 * @param queue
+	 *            Receives the variables reached, in order of visit.
+	 * @return The number of variables reached.
+	 */
+	private static int bfs(int root, int[][] adj, int[] level, int[] queue) {
+
+		level[root] = 0;
+		queue[0] = root;
+		int size = 1;
+		for (int head = 0; head < size; head++) {
+			int i = queue[head];
+			for (int j : adj[i]) {
+				if (level[j] < 0) {
+					level[j] = level[i] + 1;
+					queue[size++] = j;
+				}
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Sorts a list of variables by increasing degree.
+	 *
+	 * @param list
+	 *            The list of variables.
+	 * @param degree
+	 *            The degree of each variable.
+	 */
+	private static void sortByDegree(int[] list, int[] degree) {
+		for (int k = 1; k < list.length; k++) {
+			int v = list[k], m = k - 1;
+			for (; m >= 0 && degree[list[m]] > degree[v]; m--)
+				list[m + 1] = list[m];
+			list[m + 1] = v;
+		}
+	}
+
+	/**
+	 * Computes the bandwidth of a QBF, i.e., the largest distance between
+	 * the indices of two coupled variables.
+	 *
+	 * @param qbf
+	 *            The QBF.
+	 * @return The bandwidth.
+	 */
+	public static int bandwidth(QBF qbf) {
+
+		int n = qbf.getDomainSize(), band = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				if (qbf.A[i][j] + qbf.A[j][i] != 0)
+					band = Math.max(band, j - i);
+			}
+		}
+
+		return band;
+	}
+
+	/**
+	 * Maps a solution of the reordered QBF to the original variables.
+	 *
+	 * @param sol
+	 *            A solution of the reordered QBF.
+	 * @return The corresponding solution of the original QBF.
+	 */
+	public Solution<Integer> toOriginal(Solution<Integer> sol) {
+
+		Solution<Integer> orig = new Solution<Integer>();
+		for (Integer a : sol)
+			orig.add(order[a]);
+		orig.cost = sol.cost;
+
+		return orig;
+	}
+
+	/**
+	 * Maps a solution of the original QBF to the reordered variables.
+	 *
+	 * @param sol
+	 *            A solution of the original QBF.
+	 * @return The corresponding solution of the reordered QBF.
+	 */
+	public Solution<Integer> toReordered(Solution<Integer> sol) {
+
+		Solution<Integer> reord = new Solution<Integer>();
+		for (Integer i : sol)
+			reord.add(position[i]);
+		reord.cost = sol.cost;
+
+		return reord;
+	}
+
+	/**
+	 * A main method which benchmarks the gain updates of a banded instance
+	 * whose variables were shuffled, before and after the reordering.
+	 *
+	 */
+	public static void main(String[] args) {
+
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int band = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		int flips = 2000000;
+		Random rng = new Random(0);
+
+		int[] shuffle = new int[n];
+		for (int i = 0; i < n; i++)
+			shuffle[i] = i;
+		for (int i = n - 1; i > 0; i--) {
+			int k = rng.nextInt(i + 1), t = shuffle[i];
+			shuffle[i] = shuffle[k];
+			shuffle[k] = t;
+		}
+		Double[][] A = new Double[n][n];
+		for (Double[] row : A)
+			Arrays.fill(row, 0.0);
+		for (int i = 0; i < n; i++) {
+			for (int j = i; j < n && j <= i + band; j++) {
+				int a = Math.min(shuffle[i], shuffle[j]), b = Math.max(shuffle[i], shuffle[j]);
+				A[a][b] = (double) (rng.nextInt(21) - 10);
+			}
+		}
+
+		QBF_Inverse shuffled = new QBF_Inverse(A);
+		long startTime = System.currentTimeMillis();
+		QBF_Reordering reordering = new QBF_Reordering(shuffled);
+		System.out.println("Reordering time = " + (double) (System.currentTimeMillis() - startTime) / 1000 + " seg");
+
+		for (QBF qbf : new QBF[] { shuffled, reordering.reordered }) {
+			QBF_Incremental inc = new QBF_Incremental(qbf);
+			long walked = 0;
+			for (int i = 0; i < n; i++)
+				walked += inc.spanEnd[i] - inc.spanStart[i];
+			Random moves = new Random(1);
+			for (int k = 0; k < flips / 10; k++)
+				inc.flip(moves.nextInt(n));
+			startTime = System.nanoTime();
+			for (int k = 0; k < flips; k++)
+				inc.flip(moves.nextInt(n));
+			double nanos = (double) (System.nanoTime() - startTime) / flips;
+			System.out.println((qbf == shuffled ? "shuffled " : "reordered") + ": bandwidth = " + bandwidth(qbf)
+					+ ", entries walked per flip = " + walked / n + ", time per flip = " + nanos + " ns");
+		}
+
+	}
+
+}
@@ -0,0 +1,379 @@
+package problems.qbf;
+
+import java.util.Arrays;
+
+import problems.Evaluator;
+import solutions.Solution;
+
+/**
+ * A QBF (Quadractic Binary Function -- {@link QBF}) held by the adjacency
+ * lists of its nonzero couplings instead of a dense matrix: for each variable
+ * i, the diagonal C[i][i] = A[i][i] and the couplings C[i][j] = A[i][j] +
+ * A[j][i] with its neighbors j, in increasing order, each coupling being held
+ * by both of its variables. Memory and the evaluation of a solution take
+ * O(n + nonzeros), so that sparse instances of tens of thousands of
+ * variables, whose boxed matrix would not fit in memory, can be searched
+ * (see {@link QBF_SparseIncremental}). As in {@link QBF_Inverse}, an inverse
+ * sparse QBF negates all costs.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Sparse implements Evaluator<Integer> {
+
+	/**
+	 * Dimension of the domain.
+	 */
+	public final int size;
+
+	/**
+	 * The diagonal of the matrix of couplings.
+	 */
+	public final double[] diag;
+
+	/**
+	 * The neighbors of each variable, in increasing order.
+	 */
+	public final int[][] neighbors;
+
+	/**
+	 * The couplings of each variable with its neighbors.
+	 */
+	public final double[][] weights;
+
+	/**
+	 * 1 for a QBF, -1 for an inverse QBF.
+	 */
+	public final double sign;
+
+	/**
+	 * Constructor for the QBF_Sparse class. The lists are kept, not copied.
+	 *
+	 * @param diag
+	 *            The diagonal of the matrix of couplings.
+	 * @param neighbors
+	 *            The neighbors of each variable, in increasing order, so
+	 *            that j is a neighbor of i if and only if i is a neighbor of
+	 *            j.
+	 * @param weights
+	 *            The nonzero couplings of each variable with its neighbors.
+	 * @param inverse
+	 *            Whether the QBF is inverse, i.e., minimized.
+	 */
+	public QBF_Sparse(double[] diag, int[][] neighbors, double[][] weights, boolean inverse) {
+		this.size = diag.length;
+		this.diag = diag;
+		this.neighbors = neighbors;
+		this.weights = weights;
+		this.sign = inverse ? -1.0 : 1.0;
+	}
+
+	/**
+	 * Builds the sparse form of a QBF, walking its matrix of coefficients
+	 * twice, without building the dense matrix of couplings. An inverse QBF
+	 * gives an inverse sparse QBF.
+	 *
+	 * @param qbf
+	 *            The QBF.
+	 * @return The sparse QBF.
+	 */
+	public static QBF_Sparse of(QBF qbf) {
+
+		int n = qbf.getDomainSize();
+		Double[][] A = qbf.A;
+		double[] diag = new double[n];
+		int[] degree = new int[n];
+		for (int i = 0; i < n; i++) {
+			diag[i] = A[i][i];
+			for (int j = i + 1; j < n; j++) {
+				if (A[i][j] + A[j][i] != 0) {
+					degree[i]++;
+					degree[j]++;
+				}
+			}
+		}
+		int[][] neighbors = new int[n][];
+		double[][] weights = new double[n][];
+		for (int i = 0; i < n; i++) {
+			neighbors[i] = new int[degree[i]];
+			weights[i] = new double[degree[i]];
+		}
+		/* row i receives its neighbors j < i first, so each list is sorted */
+		int[] next = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				double c = A[i][j] + A[j][i];
+				if (c != 0) {
+					neighbors[i][next[i]] = j;
+					weights[i][next[i]++] = c;
+					neighbors[j][next[j]] = i;
+					weights[j][next[j]++] = c;
+				}
+			}
+		}
+
+		return new QBF_Sparse(diag, neighbors, weights, qbf instanceof QBF_Inverse);
+	}
+
+	/**
+	 * Builds a sparse QBF from the list of its nonzero coefficients, in
+	 * O(n + count): the coefficients of the same pair of variables, in
+	 * either order, are summed, and the couplings which sum to zero are
+	 * dropped. The lists are sorted by building them twice, the second time
+	 * by walking the first ones in increasing order of variable.
+	 *
+	 * @param diag
+	 *            The diagonal coefficients, which are not modified.
+	 * @param rows
+	 *            The row of each coefficient.
+	 * @param cols
+	 *            The column of each coefficient.
+	 * @param values
+	 *            The value of each coefficient.
+	 * @param count
+	 *            The number of coefficients in the lists.
+	 * @param inverse
+	 *            Whether the QBF is inverse, i.e., minimized.
+	 * @return The sparse QBF.
+	 */
+	public static QBF_Sparse of(double[] diag, int[] rows, int[] cols, double[] values, int count, boolean inverse) {
+
+		int n = diag.length;
+		diag = diag.clone();
+		int[] degree = new int[n];
+		for (int e = 0; e < count; e++) {
+			if (rows[e] == cols[e]) {
+				diag[rows[e]] += values[e];
+			} else {
+				degree[rows[e]]++;
+				degree[cols[e]]++;
+			}
+		}
+		int[][] unsorted = new int[n][];
+		double[][] unsortedWeights = new double[n][];
+		for (int i = 0; i < n; i++) {
+			unsorted[i] = new int[degree[i]];
+			unsortedWeights[i] = new double[degree[i]];
+		}
+		int[] next = new int[n];
+		for (int e = 0; e < count; e++) {
+			int i = rows[e], j = cols[e];
+			if (i == j)
+				continue;
+			unsorted[i][next[i]] = j;
+			unsortedWeights[i][next[i]++] = values[e];
+			unsorted[j][next[j]] = i;
+			unsortedWeights[j][next[j]++] = values[e];
+		}
+
+		int[][] sorted = new int[n][];
+		double[][] sortedWeights = new double[n][];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = new int[degree[i]];
+			sortedWeights[i] = new double[degree[i]];
+		}
+		Arrays.fill(next, 0);
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < unsorted[i].length; k++) {
+				int j = unsorted[i][k];
+				sorted[j][next[j]] = i;
+				sortedWeights[j][next[j]++] = unsortedWeights[i][k];
+			}
+			unsorted[i] = null;
+			unsortedWeights[i] = null;
+		}
+
+		/* merges the repeated pairs and drops the zero sums, in place */
+		int[][] neighbors = new int[n][];
+		double[][] weights = new double[n][];
+		for (int i = 0; i < n; i++) {
+			int[] list = sorted[i];
+			double[] w = sortedWeights[i];
+			int m = 0;
+			for (int k = 0; k < list.length;) {
+				int j = list[k];
+				double c = 0.0;
+				while (k < list.length && list[k] == j)
+					c += w[k++];
+				if (c != 0) {
+					list[m] = j;
+					w[m++] = c;
+				}
+			}
+			neighbors[i] = (m == list.length) ? list : Arrays.copyOf(list, m);
+			weights[i] = (m == w.length) ? w : Arrays.copyOf(w, m);
+		}
+
+		return new QBF_Sparse(diag, neighbors, weights, inverse);
+	}
+
+	/**
+	 * Gives a coupling of the matrix of couplings, by a binary search of the
+	 * neighbors of one variable.
+	 *
+	 * @param i
+	 *            A variable.
+	 * @param j
+	 *            Another variable, or the same one for its diagonal.
+	 * @return The coupling C[i][j], zero if the variables are not neighbors.
+	 */
+	public double coupling(int i, int j) {
+
+		if (i == j)
+			return diag[i];
+		int k = Arrays.binarySearch(neighbors[i], j);
+
+		return (k >= 0) ? weights[i][k] : 0.0;
+	}
+
+	/**
+	 * Gives the number of nonzero couplings between distinct variables.
+	 *
+	 * @return The number of nonzero couplings, each counted once.
+	 */
+	public long getNonzeroCount() {
+
+		long count = 0;
+		for (int[] list : neighbors)
+			count += list.length;
+
+		return count / 2;
+	}
+
+	/**
+	 * Computes the mean absolute row sum of the upper triangle of the matrix
+	 * of couplings, which for an upper triangular matrix of coefficients is
+	 * the same scale as {@link QBF#meanAbsoluteRowSum()}.
+	 *
+	 * @return The mean absolute row sum.
+	 */
+	public Double meanAbsoluteRowSum() {
+
+		double sum = 0.0;
+		for (int i = 0; i < size; i++) {
+			sum += Math.abs(diag[i]);
+			for (int k = 0; k < neighbors[i].length; k++) {
+				if (neighbors[i][k] > i)
+					sum += Math.abs(weights[i][k]);
+			}
+		}
+
+		return (size > 0) ? sum / size : 0.0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see problems.Evaluator#getDomainSize()
+	 */
+	@Override
+	public Integer getDomainSize() {
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc} The value is summed over the selected variables and their
+	 * selected neighbors, in O(n + their couplings).
+	 */
+	@Override
+	public Double evaluate(Solution<Integer> sol) {
+
+		boolean[] x = toAssignment(sol);
+		double value = 0.0;
+		for (Integer i : sol) {
+			value += diag[i];
+			for (int k = 0; k < neighbors[i].length; k++) {
+				int j = neighbors[i][k];
+				if (j > i && x[j])
+					value += weights[i][k];
+			}
+		}
+
+		return sol.cost = sign * value;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see problems.Evaluator#evaluateInsertionCost(java.lang.Object,
+	 * solutions.Solution)
+	 */
+	@Override
+	public Double evaluateInsertionCost(Integer elem, Solution<Integer> sol) {
+
+		boolean[] x = toAssignment(sol);
+
+		return x[elem] ? 0.0 : sign * gain(elem, x);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see problems.Evaluator#evaluateRemovalCost(java.lang.Object,
+	 * solutions.Solution)
+	 */
+	@Override
+	public Double evaluateRemovalCost(Integer elem, Solution<Integer> sol) {
+
+		boolean[] x = toAssignment(sol);
+
+		return x[elem] ? -sign * gain(elem, x) : 0.0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see problems.Evaluator#evaluateExchangeCost(java.lang.Object,
+	 * java.lang.Object, solutions.Solution)
+	 */
+	@Override
+	public Double evaluateExchangeCost(Integer elemIn, Integer elemOut, Solution<Integer> sol) {
+
+		boolean[] x = toAssignment(sol);
+		if (elemIn.equals(elemOut))
+			return 0.0;
+		if (x[elemIn])
+			return x[elemOut] ? -sign * gain(elemOut, x) : 0.0;
+		if (!x[elemOut])
+			return sign * gain(elemIn, x);
+
+		return sign * (gain(elemIn, x) - gain(elemOut, x) - coupling(elemIn, elemOut));
+	}
+
+	/**
+	 * Gives the variation of the QBF (not negated) of setting a variable to
+	 * one, given the other variables.
+	 *
+	 * @param i
+	 *            The variable.
+	 * @param x
+	 *            The assignment.
+	 * @return The gain of the variable.
+	 */
+	private double gain(int i, boolean[] x) {
+
+		double gain = diag[i];
+		for (int k = 0; k < neighbors[i].length; k++) {
+			if (x[neighbors[i][k]])
+				gain += weights[i][k];
+		}
+
+		return gain;
+	}
+
+	/**
+	 * Gives the assignment of a solution.
+	 *
+	 * @param sol
+	 *            The solution.
+	 * @return The value of each variable.
+	 */
+	private boolean[] toAssignment(Solution<Integer> sol) {
+
+		boolean[] x = new boolean[size];
+		for (Integer i : sol)
+			x[i] = true;
+
+		return x;
+	}
+
+}
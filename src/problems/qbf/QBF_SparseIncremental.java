@@ -0,0 +1,199 @@
+package problems.qbf;
+
+import java.util.Arrays;
+
+import problems.IntEvaluator;
+import solutions.Solution;
+
+/**
+ * Incremental evaluator of a {@link QBF_Sparse}, which keeps the current
+ * assignment and the gain vector as {@link QBF_Incremental} does, but walks
+ * the adjacency list of a variable instead of a row of the dense matrix of
+ * couplings: a flip takes O(degree) and an exchange, which needs the
+ * coupling of its two variables, O(log degree). The lists are shared with
+ * the QBF, so many evaluators can work over the same QBF.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_SparseIncremental implements IntEvaluator {
+
+	/**
+	 * The QBF being evaluated.
+	 */
+	public final QBF_Sparse ObjFunction;
+
+	/**
+	 * Dimension of the domain.
+	 */
+	protected final int size;
+
+	/**
+	 * 1 for a QBF, -1 for an inverse QBF.
+	 */
+	protected final double sign;
+
+	/**
+	 * The current assignment.
+	 */
+	protected final boolean[] x;
+
+	/**
+	 * The gain vector of the current assignment.
+	 */
+	protected final double[] gain;
+
+	/**
+	 * The value of the QBF (not negated) for the current assignment.
+	 */
+	protected double value;
+
+	/**
+	 * The number of selected variables.
+	 */
+	protected int count;
+
+	/**
+	 * Constructor for the QBF_SparseIncremental class. The current assignment
+	 * is the empty one.
+	 *
+	 * @param objFunction
+	 *            The QBF being evaluated.
+	 */
+	public QBF_SparseIncremental(QBF_Sparse objFunction) {
+		this.ObjFunction = objFunction;
+		this.size = objFunction.size;
+		this.sign = objFunction.sign;
+		this.x = new boolean[size];
+		this.gain = new double[size];
+		reset();
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#getDomainSize()
+	 */
+	@Override
+	public int getDomainSize() {
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#getCost()
+	 */
+	@Override
+	public double getCost() {
+		return sign * value;
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#isSelected(int)
+	 */
+	@Override
+	public boolean isSelected(int elem) {
+		return x[elem];
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#getSelectedCount()
+	 */
+	@Override
+	public int getSelectedCount() {
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#evaluateInsertionCost(int)
+	 */
+	@Override
+	public double evaluateInsertionCost(int elem) {
+		return x[elem] ? 0.0 : sign * gain[elem];
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#evaluateRemovalCost(int)
+	 */
+	@Override
+	public double evaluateRemovalCost(int elem) {
+		return x[elem] ? -sign * gain[elem] : 0.0;
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#evaluateExchangeCost(int, int)
+	 */
+	@Override
+	public double evaluateExchangeCost(int elemIn, int elemOut) {
+
+		if (elemIn == elemOut)
+			return 0.0;
+		if (x[elemIn])
+			return evaluateRemovalCost(elemOut);
+		if (!x[elemOut])
+			return evaluateInsertionCost(elemIn);
+
+		return sign * (gain[elemIn] - gain[elemOut] - ObjFunction.coupling(elemIn, elemOut));
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#flip(int)
+	 */
+	@Override
+	public void flip(int elem) {
+
+		double d;
+		if (x[elem]) {
+			value -= gain[elem];
+			count--;
+			d = -1.0;
+		} else {
+			value += gain[elem];
+			count++;
+			d = 1.0;
+		}
+		x[elem] = !x[elem];
+		int[] neighbors = ObjFunction.neighbors[elem];
+		double[] weights = ObjFunction.weights[elem];
+		for (int k = 0; k < neighbors.length; k++)
+			gain[neighbors[k]] += d * weights[k];
+
+	}
+
+	/* (non-Javadoc)
+	 * @see problems.IntEvaluator#reset()
+	 */
+	@Override
+	public void reset() {
+		Arrays.fill(x, false);
+		System.arraycopy(ObjFunction.diag, 0, gain, 0, size);
+		value = 0.0;
+		count = 0;
+	}
+
+	/**
+	 * Sets the current assignment to the given solution.
+	 *
+	 * @param sol
+	 *            The solution.
+	 */
+	public void setSolution(Solution<Integer> sol) {
+		reset();
+		for (Integer i : sol)
+			flip(i);
+	}
+
+	/**
+	 * Creates a solution from the current assignment, with its cost.
+	 *
+	 * @return A new solution.
+	 */
+	public Solution<Integer> toSolution() {
+
+		Solution<Integer> sol = new Solution<Integer>();
+		for (int i = 0; i < size; i++) {
+			if (x[i])
+				sol.add(i);
+		}
+		sol.cost = getCost();
+
+		return sol;
+	}
+
+}
@@ -0,0 +1,459 @@
+package problems.qbf.solvers;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metaheuristics.tabusearch.AbstractTS;
+import problems.qbf.QBF;
+import problems.qbf.QBF_Bound;
+import solutions.Solution;
+
+/**
+ * Exact parallel Branch and Bound for maximizing a QBF
+ * (Quadractive Binary Function -- {@link QBF}). In a node, each free variable
+ * i has a linear term lin[i] (its diagonal coefficient plus its couplings with
+ * the variables fixed to one) and couplings c[i][j] = A[i][j] + A[j][i] with
+ * the other free variables. Two bounds are used:
+ *
+ * - a cheap gain-based bound, summing over the free variables the positive
+ * part of lin[i] plus half of its positive couplings. The sums of positive
+ * and negative couplings also prove that a variable may be fixed whenever one
+ * of its values dominates the other, which is applied before branching;
+ *
+ * - on large subproblems, a spectral bound: writing x = (1 + s)/2 with
+ * s in {-1,1}, f = K + s'.M.s for a matrix M of order k+1, so for any
+ * diagonal matrix D, f <= K + (k+1)*lambda_max(M + D) - trace(D). The
+ * diagonal D is improved by a few subgradient steps, warm started from the
+ * parent node.
+ *
+ * Subtrees are explored by a work-stealing {@link ForkJoinPool}, and the
+ * search is seeded with the best solution found by {@link TS_QBF}.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class BB_QBF {
+
+	/**
+	 * Subtrees with fewer free variables than this are explored by the task
+	 * which created them.
+	 */
+	private static final int SEQUENTIAL_SIZE = 16;
+
+	/**
+	 * The spectral bound is computed for nodes with at least this number of
+	 * free variables.
+	 */
+	private static final int SPECTRAL_SIZE = 10;
+
+	/**
+	 * The number of subgradient steps for the spectral bound at the root and
+	 * at the other nodes.
+	 */
+	private static final int ROOT_STEPS = 100, NODE_STEPS = 10;
+
+	/**
+	 * the QBF being maximized.
+	 */
+	protected final QBF ObjFunction;
+
+	/**
+	 * Dimension of the domain.
+	 */
+	protected final int size;
+
+	/**
+	 * The symmetric matrix of couplings, with the linear coefficients on the
+	 * diagonal, shared with the QBF (see {@link QBF#getCouplings()}).
+	 */
+	private final double[][] c;
+
+	/**
+	 * the bits of the best solution cost, shared among the tasks.
+	 */
+	private final AtomicLong bestCost = new AtomicLong();
+
+	/**
+	 * the best solution found, as a 0-1 vector.
+	 */
+	private byte[] bestX;
+
+	/**
+	 * the number of nodes explored.
+	 */
+	private final AtomicLong nodes = new AtomicLong();
+
+	/**
+	 * Constructor for the BB_QBF class.
+	 *
+	 * @param filename
+	 *            Name of the file for which the objective function parameters
+	 *            should be read.
+	 * @throws IOException
+	 *             necessary for I/O operations.
+	 */
+	public BB_QBF(String filename) throws IOException {
+		this(new QBF(filename));
+	}
+
+	/**
+	 * Constructor for the BB_QBF class.
+	 *
+	 * @param objFunction
+	 *            The QBF being maximized.
+	 */
+	public BB_QBF(QBF objFunction) {
+
+		this.ObjFunction = objFunction;
+		this.size = objFunction.getDomainSize();
+		this.c = objFunction.getCouplings();
+
+	}
+
+	/**
+	 * Solves the problem to optimality, starting from the lower bound given
+	 * by a feasible solution.
+	 *
+	 * @param seed
+	 *            A solution of the QBF, or null.
+	 * @param parallelism
+	 *            The number of worker threads.
+	 * @return An optimal solution, whose cost is the maximum of the QBF.
+	 */
+	public Solution<Integer> solve(Solution<Integer> seed, int parallelism) {
+
+		bestX = new byte[size];
+		if (seed != null) {
+			for (Integer i : seed)
+				bestX[i] = 1;
+		}
+		double seedCost = value(bestX);
+		if (seedCost < 0.0) {
+			Arrays.fill(bestX, (byte) 0);
+			seedCost = 0.0;
+		}
+		bestCost.set(Double.doubleToLongBits(seedCost));
+		nodes.set(0);
+
+		double[] lin = new double[size], pos = new double[size], neg = new double[size];
+		byte[] x = new byte[size];
+		Arrays.fill(x, (byte) -1);
+		for (int i = 0; i < size; i++) {
+			lin[i] = c[i][i];
+			for (int j = 0; j < size; j++) {
+				if (j != i && c[i][j] > 0)
+					pos[i] += c[i][j];
+				else if (j != i)
+					neg[i] += c[i][j];
+			}
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new Node(0.0, lin, pos, neg, x, new double[size + 1], ROOT_STEPS));
+		} finally {
+			pool.shutdown();
+		}
+
+		Solution<Integer> sol = new Solution<Integer>();
+		for (int i = 0; i < size; i++) {
+			if (bestX[i] == 1)
+				sol.add(i);
+		}
+		sol.cost = Double.longBitsToDouble(bestCost.get());
+
+		return sol;
+	}
+
+	/**
+	 * Gives the number of nodes explored by the last call to
+	 * {@link #solve(Solution, int)}.
+	 *
+	 * @return The number of nodes.
+	 */
+	public long getNodes() {
+		return nodes.get();
+	}
+
+	/**
+	 * Evaluates a 0-1 vector.
+	 *
+	 * @param x
+	 *            The vector.
+	 * @return The value of the QBF.
+	 */
+	private double value(byte[] x) {
+
+		double sum = 0.0;
+		for (int i = 0; i < size; i++) {
+			if (x[i] != 1)
+				continue;
+			for (int j = i; j < size; j++) {
+				if (x[j] == 1)
+					sum += c[i][j];
+			}
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Replaces the best solution if the given one is better.
+	 *
+	 * @param cost
+	 *            The cost of the solution.
+	 * @param x
+	 *            The solution, as a 0-1 vector.
+	 */
+	private synchronized void offer(double cost, byte[] x) {
+		if (cost > Double.longBitsToDouble(bestCost.get())) {
+			bestX = x.clone();
+			bestCost.set(Double.doubleToLongBits(cost));
+			if (AbstractTS.verbose)
+				System.out.println("(Node " + nodes.get() + ") BestCost = " + cost);
+		}
+	}
+
+	/**
+	 * A subproblem of the search. Children are created by copying the state,
+	 * so that they can be executed by any worker.
+	 */
+	@SuppressWarnings("serial")
+	private class Node extends RecursiveAction {
+
+		/**
+		 * the value of the fixed part of the solution.
+		 */
+		private double value;
+
+		/**
+		 * the linear terms of the free variables.
+		 */
+		private final double[] lin;
+
+		/**
+		 * the sums of the positive and of the negative couplings of each free
+		 * variable with the other free variables.
+		 */
+		private final double[] pos, neg;
+
+		/**
+		 * the partial solution: -1 for free variables, otherwise 0 or 1.
+		 */
+		private final byte[] x;
+
+		/**
+		 * the diagonal perturbation of the spectral bound, indexed by variable
+		 * plus one (position zero is the homogenizing variable).
+		 */
+		private final double[] diag;
+
+		/**
+		 * the number of subgradient steps for the spectral bound.
+		 */
+		private final int steps;
+
+		Node(double value, double[] lin, double[] pos, double[] neg, byte[] x, double[] diag, int steps) {
+			this.value = value;
+			this.lin = lin;
+			this.pos = pos;
+			this.neg = neg;
+			this.x = x;
+			this.diag = diag;
+			this.steps = steps;
+		}
+
+		/**
+		 * Creates a copy of this node with a variable fixed.
+		 */
+		private Node child(int k, byte v) {
+			Node child = new Node(value, lin.clone(), pos.clone(), neg.clone(), x.clone(), diag.clone(), NODE_STEPS);
+			child.fix(k, v);
+			return child;
+		}
+
+		/**
+		 * Fixes a free variable, updating the terms of the other free
+		 * variables in O(n).
+		 */
+		private void fix(int k, byte v) {
+
+			x[k] = v;
+			if (v == 1)
+				value += lin[k];
+			double[] ck = c[k];
+			for (int i = 0; i < size; i++) {
+				if (x[i] >= 0)
+					continue;
+				double q = ck[i];
+				if (q > 0)
+					pos[i] -= q;
+				else
+					neg[i] -= q;
+				if (v == 1)
+					lin[i] += q;
+			}
+
+		}
+
+		@Override
+		protected void compute() {
+
+			nodes.incrementAndGet();
+
+			/* fix the variables for which one value dominates the other */
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (int i = 0; i < size; i++) {
+					if (x[i] >= 0)
+						continue;
+					if (lin[i] + pos[i] <= 0) {
+						fix(i, (byte) 0);
+						changed = true;
+					} else if (lin[i] + neg[i] >= 0) {
+						fix(i, (byte) 1);
+						changed = true;
+					}
+				}
+			}
+
+			/* cheap bound and choice of the branching variable */
+			double best = Double.longBitsToDouble(bestCost.get());
+			double bound = value, maxScore = -1;
+			int free = 0, branch = -1;
+			for (int i = 0; i < size; i++) {
+				if (x[i] >= 0)
+					continue;
+				free++;
+				double ub = lin[i] + 0.5 * pos[i];
+				if (ub > 0)
+					bound += ub;
+				if (Math.abs(ub) > maxScore) {
+					maxScore = Math.abs(ub);
+					branch = i;
+				}
+			}
+			if (branch < 0) {
+				offer(value, x);
+				return;
+			}
+			if (bound <= best)
+				return;
+			if (free >= SPECTRAL_SIZE && spectralBound(best) <= best)
+				return;
+
+			Node one = child(branch, (byte) 1), zero = child(branch, (byte) 0);
+			Node first = (lin[branch] > 0) ? one : zero, second = (first == one) ? zero : one;
+			if (free > SEQUENTIAL_SIZE) {
+				second.fork();
+				first.compute();
+				second.join();
+			} else {
+				first.compute();
+				second.compute();
+			}
+
+		}
+
+		/**
+		 * Computes the spectral bound of the node, improving {@link #diag} by
+		 * subgradient steps until the node can be pruned or the steps are
+		 * exhausted. The steps follow Polyak's rule with the best solution
+		 * cost as target.
+		 *
+		 * @param best
+		 *            The cost of the best solution.
+		 * @return An upper bound for the subproblem.
+		 */
+		private double spectralBound(double best) {
+
+			int k = 0;
+			int[] idx = new int[size];
+			for (int i = 0; i < size; i++) {
+				if (x[i] < 0)
+					idx[k++] = i;
+			}
+
+			/* f = K + s'.M.s with s_0 = 1 homogenizing the linear terms */
+			int m = k + 1;
+			double[][] M = new double[m][m];
+			double K = value;
+			for (int a = 0; a < k; a++) {
+				double[] ci = c[idx[a]];
+				double b = lin[idx[a]] / 2;
+				K += lin[idx[a]] / 2;
+				for (int e = 0; e < k; e++) {
+					if (e == a)
+						continue;
+					b += ci[idx[e]] / 4;
+					if (e > a)
+						K += ci[idx[e]] / 4;
+					M[a + 1][e + 1] = ci[idx[e]] / 8;
+				}
+				M[0][a + 1] = M[a + 1][0] = b / 2;
+			}
+
+			double[] d = new double[m], g = new double[m], v = new double[m];
+			d[0] = diag[0];
+			for (int a = 0; a < k; a++)
+				d[a + 1] = diag[idx[a] + 1];
+			double minBound = Double.POSITIVE_INFINITY;
+			for (int it = 0; it < steps; it++) {
+				double trace = 0.0;
+				for (int i = 0; i < m; i++) {
+					M[i][i] = d[i];
+					trace += d[i];
+				}
+				double lambda = QBF_Bound.largestEigenvalue(M, v);
+				double bound = K + m * lambda - trace + 1e-6 * (1.0 + Math.abs(K));
+				if (bound < minBound) {
+					minBound = bound;
+					diag[0] = d[0];
+					for (int a = 0; a < k; a++)
+						diag[idx[a] + 1] = d[a + 1];
+				}
+				if (minBound <= best)
+					break;
+				double norm = 0.0;
+				for (int i = 0; i < m; i++) {
+					g[i] = m * v[i] * v[i] - 1;
+					norm += g[i] * g[i];
+				}
+				if (norm < 1e-12)
+					break;
+				double step = (bound - best) / norm;
+				for (int i = 0; i < m; i++)
+					d[i] -= step * g[i];
+			}
+
+			return minBound;
+		}
+
+	}
+
+	/**
+	 * A main method used for testing the Branch and Bound. The search is
+	 * seeded with a short TS run.
+	 *
+	 */
+	public static void main(String[] args) throws IOException {
+
+		String filename = (args.length > 0) ? args[0] : "instances/qbf060";
+		long startTime = System.currentTimeMillis();
+		AbstractTS.verbose = false;
+		Solution<Integer> seed = new TS_QBF(20, 1000, filename).solve();
+		seed.cost = -seed.cost;
+		System.out.println("seed = " + seed);
+		BB_QBF bb = new BB_QBF(filename);
+		Solution<Integer> bestSol = bb.solve(seed, Runtime.getRuntime().availableProcessors());
+		System.out.println("optimum = " + bestSol);
+		System.out.println("nodes = " + bb.getNodes());
+		long endTime   = System.currentTimeMillis();
+		long totalTime = endTime - startTime;
+		System.out.println("Time = "+(double)totalTime/(double)1000+" seg");
+
+	}
+
+}
@@ -0,0 +1,387 @@
+package problems.qbf.solvers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import metaheuristics.tabusearch.AbstractTS;
+import problems.qbf.QBF_Inverse;
+import solutions.Solution;
+
+/**
+ * Distributed TS (Tabu Search) for the QBF (Quadractive Binary Function --
+ * {@link #QuadracticBinaryFunction}). This coordinator launches worker
+ * processes ({@link DTS_QBF_Worker}), each one running a {@link TS_QBF} with
+ * its own seed, and talks to them over sockets: the coordinator ships the
+ * instance and the parameters, the workers stream their improvements back,
+ * and every new global best solution is broadcast to all workers, which use
+ * it for aspiration and for the optimality test and, if adoption is enabled,
+ * continue the search from it.
+ *
+ * The protocol is binary ({@link DataOutputStream}). The coordinator sends
+ * the setup (the upper triangle of the matrix, the seed, the tenure, the
+ * number of iterations and the adoption flag) and then {@link #GLOBAL}
+ * messages; a worker sends {@link #IMPROVEMENT} messages and a final
+ * {@link #DONE} message. Every message but the setup is a type byte followed
+ * by a solution. By default the workers are local processes connected
+ * through the loopback interface, but a worker may be started on any node
+ * which can reach the coordinator.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class DTS_QBF {
+
+	/**
+	 * A worker found a solution better than its previous best.
+	 */
+	static final byte IMPROVEMENT = 1;
+
+	/**
+	 * A worker finished its search; the solution is its best one.
+	 */
+	static final byte DONE = 2;
+
+	/**
+	 * The coordinator broadcasts a new global best solution.
+	 */
+	static final byte GLOBAL = 3;
+
+	/**
+	 * The time, in milliseconds, the coordinator waits for the workers to
+	 * connect.
+	 */
+	private static final int CONNECT_TIMEOUT = 60000;
+
+	/**
+	 * The inverse QBF being minimized.
+	 */
+	protected final QBF_Inverse ObjFunction;
+
+	/**
+	 * The number of worker processes.
+	 */
+	protected final Integer workers;
+
+	/**
+	 * The Tabu tenure of the workers.
+	 */
+	protected final Integer tenure;
+
+	/**
+	 * The number of iterations of each worker.
+	 */
+	protected final Integer iterations;
+
+	/**
+	 * The seed of the first worker; worker k uses seed + k.
+	 */
+	protected final Long seed;
+
+	/**
+	 * Whether the workers continue their search from each new global best.
+	 */
+	protected final Boolean adopt;
+
+	/**
+	 * The global best solution.
+	 */
+	protected Solution<Integer> bestSol;
+
+	/**
+	 * The connections to the workers, or null after a worker finished.
+	 */
+	private DataOutputStream[] outputs;
+
+	/**
+	 * Constructor for the DTS_QBF class.
+	 *
+	 * @param objFunction
+	 *            The inverse QBF being minimized.
+	 * @param workers
+	 *            The number of worker processes.
+	 * @param tenure
+	 *            The Tabu tenure parameter of the workers.
+	 * @param iterations
+	 *            The number of iterations of each worker.
+	 * @param seed
+	 *            The seed of the first worker; worker k uses seed + k.
+	 * @param adopt
+	 *            Whether the workers continue their search from each new
+	 *            global best solution.
+	 */
+	public DTS_QBF(QBF_Inverse objFunction, Integer workers, Integer tenure, Integer iterations, Long seed,
+			Boolean adopt) {
+		this.ObjFunction = objFunction;
+		this.workers = workers;
+		this.tenure = tenure;
+		this.iterations = iterations;
+		this.seed = seed;
+		this.adopt = adopt;
+	}
+
+	/**
+	 * Launches the worker processes, coordinates their searches and waits for
+	 * all of them to finish.
+	 *
+	 * @return The best solution found by the workers.
+	 * @throws IOException
+	 *             If a worker cannot be launched or reached.
+	 */
+	public Solution<Integer> solve() throws IOException {
+
+		bestSol = new Solution<Integer>();
+		bestSol.cost = 0.0;
+		outputs = new DataOutputStream[workers];
+		List<Process> processes = new ArrayList<Process>();
+		List<Thread> readers = new ArrayList<Thread>();
+
+		try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+
+			for (int k = 0; k < workers; k++)
+				processes.add(launch(server.getLocalPort()));
+
+			server.setSoTimeout(CONNECT_TIMEOUT);
+			for (int k = 0; k < workers; k++) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				synchronized (this) {
+					writeSetup(out, seed + k);
+					writeSolution(out, GLOBAL, bestSol);
+					out.flush();
+					outputs[k] = out;
+				}
+				final int worker = k;
+				Thread reader = new Thread(() -> read(worker, socket, in), "dts-worker-" + k);
+				reader.start();
+				readers.add(reader);
+			}
+
+			for (Thread reader : readers)
+				reader.join();
+			for (Process p : processes)
+				p.waitFor();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the workers", e);
+		} finally {
+			for (Process p : processes)
+				p.destroy();
+		}
+
+		return bestSol;
+	}
+
+	/**
+	 * Launches a worker process in this machine, with the same Java runtime
+	 * and class path as the coordinator.
+	 *
+	 * @param port
+	 *            The port the coordinator listens to.
+	 * @return The worker process.
+	 * @throws IOException
+	 *             If the process cannot be started.
+	 */
+	protected Process launch(int port) throws IOException {
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				DTS_QBF_Worker.class.getName(), InetAddress.getLoopbackAddress().getHostAddress(),
+				String.valueOf(port));
+		builder.inheritIO();
+
+		return builder.start();
+	}
+
+	/**
+	 * Reads the messages of a worker until it finishes or its connection is
+	 * lost.
+	 *
+	 * @param worker
+	 *            The index of the worker.
+	 * @param socket
+	 *            The connection to the worker.
+	 * @param in
+	 *            The stream of the connection.
+	 */
+	private void read(int worker, Socket socket, DataInputStream in) {
+
+		try {
+			while (true) {
+				byte type = in.readByte();
+				Solution<Integer> sol = readSolution(in);
+				offer(worker, sol);
+				if (type == DONE)
+					break;
+			}
+		} catch (EOFException e) {
+			System.err.println("Worker " + worker + " disconnected");
+		} catch (IOException e) {
+			System.err.println("Worker " + worker + " failed: " + e.getMessage());
+		} finally {
+			synchronized (this) {
+				outputs[worker] = null;
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+
+	}
+
+	/**
+	 * Updates the global best solution with a solution sent by a worker and,
+	 * if it is improved, broadcasts it to the other workers.
+	 *
+	 * @param worker
+	 *            The index of the worker which sent the solution.
+	 * @param sol
+	 *            The solution sent.
+	 */
+	private synchronized void offer(int worker, Solution<Integer> sol) {
+
+		if (sol.cost >= bestSol.cost)
+			return;
+		bestSol = sol;
+		if (AbstractTS.verbose)
+			System.out.println("(Worker " + worker + ") BestSol = " + bestSol);
+		for (int k = 0; k < outputs.length; k++) {
+			if (k == worker || outputs[k] == null)
+				continue;
+			try {
+				writeSolution(outputs[k], GLOBAL, bestSol);
+				outputs[k].flush();
+			} catch (IOException e) {
+				outputs[k] = null;
+			}
+		}
+
+	}
+
+	/**
+	 * Writes the setup of a worker: the instance and the search parameters.
+	 *
+	 * @param out
+	 *            The stream of the connection to the worker.
+	 * @param workerSeed
+	 *            The seed of the worker.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	private void writeSetup(DataOutputStream out, long workerSeed) throws IOException {
+
+		int n = ObjFunction.getDomainSize();
+		out.writeInt(n);
+		for (int i = 0; i < n; i++) {
+			for (int j = i; j < n; j++)
+				out.writeDouble(ObjFunction.A[i][j]);
+		}
+		out.writeLong(workerSeed);
+		out.writeInt(tenure);
+		out.writeInt(iterations);
+		out.writeBoolean(adopt);
+
+	}
+
+	/**
+	 * Reads the instance written by
+	 * {@link #writeSetup(DataOutputStream, long)}.
+	 *
+	 * @param in
+	 *            The stream of the connection to the coordinator.
+	 * @return The upper triangular matrix of coefficients.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	static Double[][] readMatrix(DataInputStream in) throws IOException {
+
+		int n = in.readInt();
+		Double[][] A = new Double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i; j < n; j++) {
+				A[i][j] = in.readDouble();
+				A[j][i] = (i == j) ? A[i][j] : 0.0;
+			}
+		}
+
+		return A;
+	}
+
+	/**
+	 * Writes a message carrying a solution.
+	 *
+	 * @param out
+	 *            The stream of the connection.
+	 * @param type
+	 *            The type of the message.
+	 * @param sol
+	 *            The solution.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	static void writeSolution(DataOutputStream out, byte type, Solution<Integer> sol) throws IOException {
+
+		out.writeByte(type);
+		out.writeDouble(sol.cost);
+		out.writeInt(sol.size());
+		for (Integer e : sol)
+			out.writeInt(e);
+
+	}
+
+	/**
+	 * Reads the solution of a message written by
+	 * {@link #writeSolution(DataOutputStream, byte, Solution)}, whose type has
+	 * already been read.
+	 *
+	 * @param in
+	 *            The stream of the connection.
+	 * @return The solution.
+	 * @throws IOException
+	 *             Necessary for I/O operations.
+	 */
+	static Solution<Integer> readSolution(DataInputStream in) throws IOException {
+
+		Solution<Integer> sol = new Solution<Integer>();
+		sol.cost = in.readDouble();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++)
+			sol.add(in.readInt());
+
+		return sol;
+	}
+
+	/**
+	 * A main method used for testing the distributed TS with local worker
+	 * processes.
+	 *
+	 */
+	public static void main(String[] args) throws IOException {
+
+		String filename = (args.length > 0) ? args[0] : "instances/qbf100";
+		int workers = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+
+		long startTime = System.currentTimeMillis();
+		DTS_QBF dts = new DTS_QBF(new QBF_Inverse(filename), workers, 20, 10000, 0L, true);
+		Solution<Integer> bestSol = dts.solve();
+		System.out.println("maxVal = " + bestSol);
+		long endTime   = System.currentTimeMillis();
+		long totalTime = endTime - startTime;
+		System.out.println("Time = "+(double)totalTime/(double)1000+" seg");
+
+	}
+
+}
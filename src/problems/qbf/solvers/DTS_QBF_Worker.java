@@ -0,0 +1,169 @@
+package problems.qbf.solvers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import problems.qbf.QBF_Inverse;
+import solutions.Solution;
+
+/**
+ * Worker of the distributed TS ({@link DTS_QBF}): a {@link TS_QBF} which
+ * streams its improvements to the coordinator and takes the global best
+ * solutions broadcast by it. A global best better than the worker's own best
+ * replaces it, so that aspiration and the optimality test are against the
+ * global best; with adoption enabled, the search also continues from it.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class DTS_QBF_Worker extends TS_QBF {
+
+	/**
+	 * The stream of the connection to the coordinator.
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Whether the search continues from each new global best solution.
+	 */
+	protected final Boolean adopt;
+
+	/**
+	 * The last global best solution received and not yet taken by the
+	 * search.
+	 */
+	private final AtomicReference<Solution<Integer>> received = new AtomicReference<Solution<Integer>>();
+
+	/**
+	 * Constructor for the DTS_QBF_Worker class.
+	 *
+	 * @param objFunction
+	 *            The inverse QBF being minimized.
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param seed
+	 *            The seed of the random number generator.
+	 * @param adopt
+	 *            Whether the search continues from each new global best.
+	 * @param out
+	 *            The stream of the connection to the coordinator.
+	 */
+	public DTS_QBF_Worker(QBF_Inverse objFunction, Integer tenure, Integer iterations, Long seed, Boolean adopt,
+			DataOutputStream out) {
+		super(tenure, iterations, objFunction, 50 * tenure, 5 * tenure, null);
+		setSeed(seed);
+		this.adopt = adopt;
+		this.out = out;
+	}
+
+	/**
+	 * Hands a global best solution over to the search, which takes it at its
+	 * next iteration. Called by the thread reading from the coordinator.
+	 *
+	 * @param sol
+	 *            The global best solution.
+	 */
+	public void receive(Solution<Integer> sol) {
+		received.set(sol);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * A global best solution received from the coordinator is taken first,
+	 * and an improvement of the best solution is sent to the coordinator.
+	 */
+	@Override
+	protected boolean updateBestSol() {
+
+		Solution<Integer> global = received.getAndSet(null);
+		if (global != null && global.cost < bestValue) {
+			bestValue = global.cost;
+			Arrays.fill(bestX, false);
+			for (Integer e : global)
+				bestX[e] = true;
+			for (int i = 0; adopt && i < bestX.length; i++) {
+				if (bestX[i] == incremental.isSelected(i))
+					continue;
+				if (bestX[i])
+					enteredAt[i] = iteration;
+				else
+					residence[i] += iteration - enteredAt[i];
+				incremental.flip(i);
+			}
+		}
+
+		if (super.updateBestSol()) {
+			send(DTS_QBF.IMPROVEMENT);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Sends the best solution to the coordinator.
+	 *
+	 * @param type
+	 *            The type of the message.
+	 */
+	private void send(byte type) {
+
+		try {
+			DTS_QBF.writeSolution(out, type, toSolution(bestX, bestValue));
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+	}
+
+	/**
+	 * Connects to the coordinator, reads the instance and the parameters,
+	 * runs the search and sends its best solution.
+	 *
+	 * @param args
+	 *            The host and the port of the coordinator.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		verbose = false;
+		try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			QBF_Inverse qbf = new QBF_Inverse(DTS_QBF.readMatrix(in));
+			long seed = in.readLong();
+			int tenure = in.readInt();
+			int iterations = in.readInt();
+			boolean adopt = in.readBoolean();
+			DTS_QBF_Worker worker = new DTS_QBF_Worker(qbf, tenure, iterations, seed, adopt, out);
+
+			Thread reader = new Thread(() -> {
+				try {
+					while (in.readByte() == DTS_QBF.GLOBAL)
+						worker.receive(DTS_QBF.readSolution(in));
+				} catch (IOException e) {
+					// the coordinator closed the connection
+				}
+			}, "dts-coordinator");
+			reader.setDaemon(true);
+			reader.start();
+
+			worker.solve();
+			worker.send(DTS_QBF.DONE);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,627 @@
+package problems.qbf.solvers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import metaheuristics.tabusearch.AbstractTS;
+import problems.qbf.QBF;
+import problems.qbf.QBF_Inverse;
+import problems.qbf.QBF_Sparse;
+import problems.qbf.QBF_SparseIncremental;
+import solutions.Solution;
+
+/**
+ * Multilevel solver for large instances of the QBF (Quadractive Binary
+ * Function -- {@link #QuadracticBinaryFunction}). The QBF is coarsened level
+ * by level: the variables are matched along their heaviest positive coupling
+ * (heavy-edge matching), and each matched pair becomes a super-variable,
+ * whose selection selects both. Since x_i = x_j = X, the coarse QBF is exact
+ * over the solutions which keep the pairs together: the coefficient of X
+ * with Y is the sum of the coefficients of their members. A flip of a
+ * super-variable is thus a compound move of the finer QBF.
+ *
+ * The coarsening is guided by a reference solution: only variables with the
+ * same value in it are matched, so that the reference is also a solution of
+ * every coarse QBF. The coarsest QBF is searched by {@link TS_QBF} from the
+ * reference, and its best solution is projected back level by level, each
+ * projection being improved by a descent of single flips, which is cheap,
+ * and then refined by a short {@link TS_QBF} run which starts from it. The
+ * best solution can therefore only improve along the levels. The first
+ * reference is a local optimum of single flips, and each cycle of
+ * coarsening and refinement starts from the best solution of the previous
+ * one.
+ *
+ * The time left to a cycle is shared equally by the levels still to be
+ * searched, but the search of a coarse level stops once it stagnates, so
+ * that most of the time goes to the original QBF.
+ *
+ * Every level, the original QBF included, is a {@link QBF_Sparse}: the
+ * matching and the contraction of a level take O(nonzeros) time and
+ * memory, and each level is searched by a {@link TS_QBF} over its sparse
+ * couplings, whose flips take O(degree). No dense matrix is ever built, so
+ * sparse instances of tens of thousands of variables fit in memory. The
+ * levels larger than {@link #CHAIN_SIZE} variables are searched by ejection
+ * chains, since their exchange neighborhood is quadratic. The coarsening
+ * pays off most on instances with local structure, e.g. clusters of
+ * strongly coupled variables; on uniform random sparse instances it finds
+ * little to contract, and it is about even with a flat search with the same
+ * budget (see {@link #main(String[])}).
+ *
+ * @author ccavellucci, fusberti
+ */
+public class ML_QBF {
+
+	/**
+	 * Coarsening stops when a level shrinks by less than this fraction.
+	 */
+	private static final double MIN_SHRINK = 0.1;
+
+	/**
+	 * The number of variables above which a level is searched by ejection
+	 * chains of {@link #CHAIN_DEPTH} flips instead of single flips and
+	 * exchanges.
+	 */
+	private static final int CHAIN_SIZE = 1000;
+
+	/**
+	 * The maximum length of the ejection chains of the large levels.
+	 */
+	private static final int CHAIN_DEPTH = 10;
+
+	/**
+	 * The QBF being maximized, as a sparse inverse QBF.
+	 */
+	protected final QBF_Sparse ObjFunction;
+
+	/**
+	 * The Tabu tenure of the searches of all levels.
+	 */
+	protected final Integer tenure;
+
+	/**
+	 * The number of variables below which the QBF is not coarsened.
+	 */
+	protected final Integer coarsestSize;
+
+	/**
+	 * The number of cycles of coarsening and refinement the budget is split
+	 * into.
+	 */
+	protected final Integer cycles;
+
+	/**
+	 * The random number generator of the matchings and seeds of the searches.
+	 */
+	protected final Random rng;
+
+	/**
+	 * Each level of the current cycle, from the original (level 0) to the
+	 * coarsest.
+	 */
+	protected final List<QBF_Sparse> levels = new ArrayList<QBF_Sparse>();
+
+	/**
+	 * For each level but the coarsest, the super-variable of the next level
+	 * which contains each variable.
+	 */
+	protected final List<int[]> maps = new ArrayList<int[]>();
+
+	/**
+	 * Constructor for the ML_QBF class over a dense inverse QBF, which is
+	 * converted to its sparse form (see {@link QBF_Sparse#of(QBF)}).
+	 *
+	 * @param objFunction
+	 *            The inverse QBF being minimized.
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param coarsestSize
+	 *            The number of variables below which the QBF is not
+	 *            coarsened.
+	 * @param cycles
+	 *            The number of cycles of coarsening and refinement.
+	 * @param seed
+	 *            The seed of the matchings and of the searches.
+	 */
+	public ML_QBF(QBF_Inverse objFunction, Integer tenure, Integer coarsestSize, Integer cycles, Long seed) {
+		this(QBF_Sparse.of(objFunction), tenure, coarsestSize, cycles, seed);
+	}
+
+	/**
+	 * Constructor for the ML_QBF class.
+	 *
+	 * @param objFunction
+	 *            The sparse inverse QBF being minimized.
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param coarsestSize
+	 *            The number of variables below which the QBF is not
+	 *            coarsened.
+	 * @param cycles
+	 *            The number of cycles of coarsening and refinement.
+	 * @param seed
+	 *            The seed of the matchings and of the searches.
+	 */
+	public ML_QBF(QBF_Sparse objFunction, Integer tenure, Integer coarsestSize, Integer cycles, Long seed) {
+		this.ObjFunction = objFunction;
+		this.tenure = tenure;
+		this.coarsestSize = coarsestSize;
+		this.cycles = cycles;
+		this.rng = new Random(seed);
+	}
+
+	/**
+	 * Solves the QBF within a time budget, which includes the coarsening and
+	 * the descents: each of them stops at the deadline, and the share of a
+	 * level is taken from the time actually left once its search is built.
+	 * Once the deadline of a cycle is reached, its solution is only
+	 * projected down to the original QBF, which keeps its cost.
+	 *
+	 * @param budget
+	 *            The time budget, in milliseconds.
+	 * @return The best solution found, of the original QBF.
+	 */
+	public Solution<Integer> solve(Long budget) {
+
+		long deadline = System.currentTimeMillis() + budget;
+		Solution<Integer> best = descent(ObjFunction, null, deadline);
+
+		for (int cycle = 0; cycle < cycles && System.currentTimeMillis() < deadline; cycle++) {
+			long cycleDeadline = System.currentTimeMillis()
+					+ (deadline - System.currentTimeMillis()) / (cycles - cycle);
+			Solution<Integer> sol = coarsen(best, cycleDeadline);
+			for (int l = levels.size() - 1; l >= 0; l--) {
+				QBF_Sparse level = levels.get(l);
+				if (l < levels.size() - 1) {
+					sol = project(sol, maps.get(l));
+					if (System.currentTimeMillis() < cycleDeadline)
+						sol = descent(level, sol, cycleDeadline);
+				}
+				if (System.currentTimeMillis() >= cycleDeadline)
+					continue;
+
+				Refinement ts = new Refinement(tenure, level, (l > 0) ? 50 * tenure : null);
+				long share = (cycleDeadline - System.currentTimeMillis()) / (l + 1);
+				if (share <= 0)
+					continue;
+				ts.setSeed(rng.nextLong());
+				ts.setTimeLimit(share);
+				ts.setInitialSolution(sol);
+				sol = ts.solve();
+				if (AbstractTS.verbose)
+					System.out.println("Cycle " + cycle + ", level " + l + " (" + level.size
+							+ " variables, " + share + " ms): maxVal = " + -sol.cost);
+			}
+			if (sol.cost < best.cost)
+				best = sol;
+		}
+
+		return best;
+	}
+
+	/**
+	 * The search of a level, which is cancelled once the best solution has
+	 * not improved for a number of iterations, so that the time left goes
+	 * to the finer levels. A level larger than {@link #CHAIN_SIZE} is
+	 * searched by ejection chains.
+	 */
+	private static class Refinement extends TS_QBF {
+
+		/**
+		 * the number of iterations without improvement after which the search
+		 * stops, or null to use the whole time limit.
+		 */
+		private final Integer patience;
+
+		/**
+		 * the last iteration in which the best solution improved.
+		 */
+		private int lastBest;
+
+		/**
+		 * Constructor for the Refinement class.
+		 */
+		Refinement(Integer tenure, QBF_Sparse objFunction, Integer patience) {
+			super(tenure, Integer.MAX_VALUE, objFunction, 50 * tenure, 5 * tenure, null);
+			this.patience = patience;
+			if (objFunction.size > CHAIN_SIZE)
+				setEjectionChain(CHAIN_DEPTH);
+		}
+
+		/* (non-Javadoc)
+		 * @see problems.qbf.solvers.TS_QBF#neighborhoodMove()
+		 */
+		@Override
+		public Solution<Integer> neighborhoodMove() {
+			if (patience != null && currentIteration - lastBest >= patience)
+				cancel();
+			return super.neighborhoodMove();
+		}
+
+		/* (non-Javadoc)
+		 * @see metaheuristics.tabusearch.AbstractIntTS#updateBestSol()
+		 */
+		@Override
+		protected boolean updateBestSol() {
+			if (!super.updateBestSol())
+				return false;
+			lastBest = currentIteration;
+			return true;
+		}
+
+	}
+
+	/**
+	 * Finds a local optimum of single flips, by sweeping the variables and
+	 * flipping each one whose flip improves, until a whole sweep improves
+	 * nothing. A sweep takes O(n + degrees of the flipped variables).
+	 *
+	 * @param qbf
+	 *            The sparse inverse QBF.
+	 * @param start
+	 *            The solution the descent starts from, or null for the empty
+	 *            one.
+	 * @param deadline
+	 *            The time, in milliseconds, at which the descent stops even
+	 *            if some flip still improves.
+	 * @return The local optimum, or the best solution reached by the
+	 *         deadline.
+	 */
+	protected static Solution<Integer> descent(QBF_Sparse qbf, Solution<Integer> start, long deadline) {
+
+		QBF_SparseIncremental incremental = new QBF_SparseIncremental(qbf);
+		if (start != null)
+			incremental.setSolution(start);
+		boolean improved = true;
+		while (improved && System.currentTimeMillis() < deadline) {
+			improved = false;
+			for (int i = 0; i < qbf.size; i++) {
+				double delta = incremental.isSelected(i) ? incremental.evaluateRemovalCost(i)
+						: incremental.evaluateInsertionCost(i);
+				if (delta < 0) {
+					incremental.flip(i);
+					improved = true;
+				}
+			}
+		}
+
+		return incremental.toSolution();
+	}
+
+	/**
+	 * Builds the levels of a cycle, by heavy-edge matching of the variables
+	 * with the same value in a reference solution, until the QBF has at most
+	 * {@link #coarsestSize} variables, a matching shrinks it too little or
+	 * the deadline is reached.
+	 *
+	 * @param reference
+	 *            The reference solution of the original QBF.
+	 * @param deadline
+	 *            The time, in milliseconds, after which no level is added.
+	 * @return The reference solution of the coarsest QBF, with the same cost.
+	 */
+	protected Solution<Integer> coarsen(Solution<Integer> reference, long deadline) {
+
+		levels.clear();
+		maps.clear();
+		QBF_Sparse level = ObjFunction;
+		boolean[] x = new boolean[level.size];
+		for (Integer i : reference)
+			x[i] = true;
+		levels.add(level);
+		while (level.size > coarsestSize && System.currentTimeMillis() < deadline) {
+			int[] map = new int[level.size];
+			int coarseSize = match(level, x, map);
+			if (coarseSize > (1 - MIN_SHRINK) * level.size)
+				break;
+			level = contract(level, map, coarseSize);
+			boolean[] coarseX = new boolean[coarseSize];
+			for (int i = 0; i < map.length; i++)
+				coarseX[map[i]] = x[i];
+			x = coarseX;
+			maps.add(map);
+			levels.add(level);
+		}
+
+		Solution<Integer> sol = new Solution<Integer>();
+		for (int a = 0; a < x.length; a++) {
+			if (x[a])
+				sol.add(a);
+		}
+		sol.cost = reference.cost;
+
+		return sol;
+	}
+
+	/**
+	 * Matches the variables of a level along their heaviest positive
+	 * couplings, in O(nonzeros). The variables are visited in random order,
+	 * and each unmatched one is matched with its unmatched neighbor of the
+	 * same value in the reference solution of largest positive coupling, if
+	 * any.
+	 *
+	 * @param level
+	 *            The level.
+	 * @param x
+	 *            The reference solution, as the value of each variable.
+	 * @param map
+	 *            Receives the super-variable of each variable.
+	 * @return The number of super-variables.
+	 */
+	protected int match(QBF_Sparse level, boolean[] x, int[] map) {
+
+		int n = level.size;
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		for (int i = n - 1; i > 0; i--) {
+			int k = rng.nextInt(i + 1), t = order[i];
+			order[i] = order[k];
+			order[k] = t;
+		}
+
+		int[] mate = new int[n];
+		Arrays.fill(mate, -1);
+		for (int i : order) {
+			if (mate[i] >= 0)
+				continue;
+			int[] neighbors = level.neighbors[i];
+			double[] weights = level.weights[i];
+			int best = -1;
+			double heaviest = 0.0;
+			for (int k = 0; k < neighbors.length; k++) {
+				int j = neighbors[k];
+				if (mate[j] < 0 && x[j] == x[i] && weights[k] > heaviest) {
+					heaviest = weights[k];
+					best = j;
+				}
+			}
+			if (best >= 0) {
+				mate[i] = best;
+				mate[best] = i;
+			} else {
+				mate[i] = i;
+			}
+		}
+
+		int coarseSize = 0;
+		for (int i = 0; i < n; i++) {
+			if (mate[i] >= i)
+				map[i] = coarseSize++;
+			else
+				map[i] = map[mate[i]];
+		}
+
+		return coarseSize;
+	}
+
+	/**
+	 * Contracts the matched variables of a level into super-variables, in
+	 * O(nonzeros log degree): the couplings of the members of each
+	 * super-variable are accumulated by super-neighbor in a scatter array,
+	 * whose super-neighbors are then sorted, and the couplings between two
+	 * members go to the diagonal.
+	 *
+	 * @param level
+	 *            The level.
+	 * @param map
+	 *            The super-variable of each variable.
+	 * @param coarseSize
+	 *            The number of super-variables.
+	 * @return The coarse level.
+	 */
+	protected static QBF_Sparse contract(QBF_Sparse level, int[] map, int coarseSize) {
+
+		int n = level.size;
+		int[] first = new int[coarseSize + 1];
+		for (int i = 0; i < n; i++)
+			first[map[i] + 1]++;
+		for (int a = 0; a < coarseSize; a++)
+			first[a + 1] += first[a];
+		int[] members = new int[n];
+		int[] next = Arrays.copyOf(first, coarseSize);
+		for (int i = 0; i < n; i++)
+			members[next[map[i]]++] = i;
+
+		double[] diag = new double[coarseSize];
+		int[][] neighbors = new int[coarseSize][];
+		double[][] weights = new double[coarseSize][];
+		double[] sum = new double[coarseSize];
+		int[] seen = new int[coarseSize];
+		int[] touched = new int[coarseSize];
+		for (int a = 0; a < coarseSize; a++) {
+			int count = 0;
+			for (int m = first[a]; m < first[a + 1]; m++) {
+				int i = members[m];
+				diag[a] += level.diag[i];
+				for (int k = 0; k < level.neighbors[i].length; k++) {
+					int j = level.neighbors[i][k], b = map[j];
+					double c = level.weights[i][k];
+					if (b == a) {
+						/* each coupling is held by both members */
+						if (i < j)
+							diag[a] += c;
+						continue;
+					}
+					if (seen[b] != a + 1) {
+						seen[b] = a + 1;
+						sum[b] = 0.0;
+						touched[count++] = b;
+					}
+					sum[b] += c;
+				}
+			}
+			Arrays.sort(touched, 0, count);
+			int degree = 0;
+			for (int t = 0; t < count; t++) {
+				if (sum[touched[t]] != 0)
+					degree++;
+			}
+			neighbors[a] = new int[degree];
+			weights[a] = new double[degree];
+			for (int t = 0, k = 0; t < count; t++) {
+				int b = touched[t];
+				if (sum[b] != 0) {
+					neighbors[a][k] = b;
+					weights[a][k++] = sum[b];
+				}
+			}
+		}
+
+		return new QBF_Sparse(diag, neighbors, weights, true);
+	}
+
+	/**
+	 * Projects a solution of a coarse QBF to the finer one, selecting the
+	 * members of each selected super-variable.
+	 *
+	 * @param coarse
+	 *            A solution of the coarse QBF.
+	 * @param map
+	 *            The super-variable of each variable of the finer QBF.
+	 * @return The projected solution, whose cost is the same.
+	 */
+	protected static Solution<Integer> project(Solution<Integer> coarse, int[] map) {
+
+		boolean[] selected = new boolean[map.length];
+		for (Integer a : coarse)
+			selected[a] = true;
+		Solution<Integer> fine = new Solution<Integer>();
+		for (int i = 0; i < map.length; i++) {
+			if (selected[map[i]])
+				fine.add(i);
+		}
+		fine.cost = coarse.cost;
+
+		return fine;
+	}
+
+	/**
+	 * Gives the number of variables of each level, from the original to the
+	 * coarsest.
+	 *
+	 * @return The sizes of the levels.
+	 */
+	public int[] getLevelSizes() {
+
+		int[] sizes = new int[levels.size()];
+		for (int l = 0; l < sizes.length; l++)
+			sizes[l] = levels.get(l).size;
+
+		return sizes;
+	}
+
+	/**
+	 * Builds a random sparse inverse QBF. In a clustered instance, the
+	 * variables form clusters of 20 (under a random labelling), each variable
+	 * alone is worth selecting only with much of its cluster, and the
+	 * clusters are coupled by sparse noise. In a uniform instance, every
+	 * coefficient is nonzero with the same probability. The noise is drawn
+	 * by geometric skips, so that the instance is built in O(nonzeros).
+	 *
+	 * @param n
+	 *            The number of variables.
+	 * @param clustered
+	 *            Whether the instance is clustered or uniform.
+	 * @param rng
+	 *            The random number generator.
+	 * @return The sparse inverse QBF.
+	 */
+	private static QBF_Sparse randomInstance(int n, boolean clustered, Random rng) {
+
+		int[] label = new int[n];
+		for (int i = 0; i < n; i++)
+			label[i] = i;
+		for (int i = n - 1; i > 0; i--) {
+			int k = rng.nextInt(i + 1), t = label[i];
+			label[i] = label[k];
+			label[k] = t;
+		}
+		double noise = 0.005, skip = Math.log(1 - noise);
+		double[] diag = new double[n];
+		int capacity = 1 << 16, count = 0;
+		int[] rows = new int[capacity], cols = new int[capacity];
+		double[] values = new double[capacity];
+		for (int i = 0; i < n; i++) {
+			diag[label[i]] = clustered ? (double) -(1 + rng.nextInt(10)) : (double) (rng.nextInt(21) - 10);
+			int clusterEnd = clustered ? Math.min(n, (i / 20 + 1) * 20) : i + 1;
+			for (int j = i + 1; j < n; j++) {
+				double c;
+				if (j < clusterEnd) {
+					if (rng.nextDouble() >= 0.5)
+						continue;
+					c = 1 + rng.nextInt(4);
+				} else {
+					j += (int) (Math.log(1 - rng.nextDouble()) / skip);
+					if (j >= n)
+						break;
+					c = rng.nextInt(21) - 10;
+				}
+				if (c == 0)
+					continue;
+				if (count == capacity) {
+					capacity *= 2;
+					rows = Arrays.copyOf(rows, capacity);
+					cols = Arrays.copyOf(cols, capacity);
+					values = Arrays.copyOf(values, capacity);
+				}
+				rows[count] = label[i];
+				cols[count] = label[j];
+				values[count++] = c;
+			}
+		}
+
+		return QBF_Sparse.of(diag, rows, cols, values, count, true);
+	}
+
+	/**
+	 * A main method which compares the multilevel solver with a flat
+	 * {@link TS_QBF} with the same time budget, over a large clustered and a
+	 * large uniform random sparse instance (see
+	 * {@link #randomInstance(int, boolean, Random)}). The flat search starts
+	 * from the same descent and uses the same ejection chains as the large
+	 * levels. The arguments are the number of variables (20000 by default)
+	 * and the budget in milliseconds. It throws IllegalStateException if the
+	 * multilevel solver overruns its budget, or if it is not ahead of the
+	 * flat search on the clustered instance.
+	 *
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		long budget = (args.length > 1) ? Long.parseLong(args[1]) : 5000L;
+		AbstractTS.verbose = false;
+
+		for (boolean clustered : new boolean[] { true, false }) {
+			QBF_Sparse qbf = randomInstance(n, clustered, new Random(0));
+			System.out.println((clustered ? "clustered" : "uniform") + " instance, n = " + n + ", nonzeros = "
+					+ qbf.getNonzeroCount());
+
+			long startTime = System.currentTimeMillis();
+			TS_QBF flat = new TS_QBF(20, Integer.MAX_VALUE, qbf, 50 * 20, 5 * 20, null);
+			flat.setEjectionChain(CHAIN_DEPTH);
+			flat.setInitialSolution(descent(qbf, null, startTime + budget));
+			flat.setTimeLimit(Math.max(1L, budget - (System.currentTimeMillis() - startTime)));
+			double flatVal = -qbf.evaluate(flat.solve());
+			System.out.println("flat:       maxVal = " + flatVal + ", time = "
+					+ (double) (System.currentTimeMillis() - startTime) / 1000 + " seg");
+
+			startTime = System.currentTimeMillis();
+			ML_QBF multilevel = new ML_QBF(qbf, 20, 100, 1, 0L);
+			Solution<Integer> mlSol = multilevel.solve(budget);
+			long totalTime = System.currentTimeMillis() - startTime;
+			double mlVal = -qbf.evaluate(mlSol);
+			System.out.println("multilevel: maxVal = " + mlVal + ", time = " + (double) totalTime / 1000
+					+ " seg, levels = " + Arrays.toString(multilevel.getLevelSizes()));
+			if (totalTime > budget + budget / 10)
+				throw new IllegalStateException("The multilevel solver overran its budget: " + totalTime + " ms");
+			if (clustered && mlVal <= flatVal)
+				throw new IllegalStateException("The multilevel solver is not ahead of the flat search: " + mlVal
+						+ " <= " + flatVal);
+		}
+
+	}
+
+}
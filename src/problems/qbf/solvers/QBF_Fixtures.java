@@ -0,0 +1,107 @@
+package problems.qbf.solvers;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.LongConsumer;
+
+import com.sun.management.ThreadMXBean;
+
+import metaheuristics.AbstractSearch;
+import problems.qbf.QBF_Inverse;
+import problems.qbf.QBF_Reduction;
+import solutions.Solution;
+
+/**
+ * The fixtures shared by the checks in the main methods of the QBF solvers,
+ * so that every engine is checked over the same instances.
+ *
+ * @author ccavellucci, fusberti
+ */
+final class QBF_Fixtures {
+
+	/**
+	 * The allocation per iteration tolerated by {@link #checkAllocation}, in
+	 * bytes. Any object allocated by every iteration takes at least 16 bytes,
+	 * while the few allocations of the JIT compiler or of a rare path of the
+	 * search spread to a fraction of a byte.
+	 */
+	static final double ALLOCATION_TOLERANCE = 1.0;
+
+	/**
+	 * The number of measured pairs of runs of {@link #checkAllocation}.
+	 */
+	private static final int ALLOCATION_ROUNDS = 3;
+
+	private QBF_Fixtures() {
+	}
+
+	/**
+	 * Gives the preprocessing of a QBF of three variables which are all fixed
+	 * by it, so that a search over the reduced QBF has no variable and the
+	 * lower bound is only the value of the fixed variables.
+	 *
+	 * @return The preprocessing of the QBF.
+	 */
+	static QBF_Reduction fixedReduction() {
+
+		Double[][] A = { { 1.0, 2.0, 3.0 }, { 0.0, 4.0, 5.0 }, { 0.0, 0.0, 6.0 } };
+
+		return new QBF_Reduction(new QBF_Inverse(A));
+	}
+
+	/**
+	 * Checks that the lower bound of a search over {@link #fixedReduction()}
+	 * is given in the space of the returned cost, i.e., that it matches the
+	 * cost of the optimal solution found.
+	 *
+	 * @param search
+	 *            The search, which already returned its solution.
+	 * @param sol
+	 *            The solution returned by the search.
+	 */
+	static void checkFixedBound(AbstractSearch search, Solution<Integer> sol) {
+
+		double lowerBound = search.awaitLowerBound(5000L);
+		System.out.println("fixed maxVal = " + -sol.cost + ", upper bound = " + -lowerBound);
+		if (Math.abs(sol.cost - lowerBound) > 1e-6)
+			throw new IllegalStateException("The lower bound " + lowerBound + " does not match the optimal cost "
+					+ sol.cost);
+
+	}
+
+	/**
+	 * Checks that the steady-state iterations of a search do not allocate
+	 * memory. After a warm-up run, each round runs the search for twice the
+	 * given number of iterations and then for the given number, which pays
+	 * the same start and end of the search; the difference of the two,
+	 * averaged over the rounds, must be within {@link #ALLOCATION_TOLERANCE}
+	 * per iteration.
+	 *
+	 * @param unit
+	 *            The name of an iteration of the search, for the report.
+	 * @param search
+	 *            Runs the search for a number of iterations, in the calling
+	 *            thread.
+	 * @param iterations
+	 *            The number of iterations of the short run.
+	 */
+	static void checkAllocation(String unit, LongConsumer search, long iterations) {
+
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		search.accept(2 * iterations);
+		long steady = 0;
+		for (int round = 0; round < ALLOCATION_ROUNDS; round++) {
+			long allocated = threads.getCurrentThreadAllocatedBytes();
+			search.accept(2 * iterations);
+			steady += threads.getCurrentThreadAllocatedBytes() - allocated;
+			allocated = threads.getCurrentThreadAllocatedBytes();
+			search.accept(iterations);
+			steady -= threads.getCurrentThreadAllocatedBytes() - allocated;
+		}
+		double perIteration = (double) steady / (ALLOCATION_ROUNDS * iterations);
+		System.out.println("Allocated = " + perIteration + " bytes/" + unit);
+		if (perIteration > ALLOCATION_TOLERANCE)
+			throw new IllegalStateException("The search allocates " + perIteration + " bytes/" + unit);
+
+	}
+
+}
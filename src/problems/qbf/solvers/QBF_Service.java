@@ -0,0 +1,393 @@
+package problems.qbf.solvers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import metaheuristics.tabusearch.AbstractTS;
+import problems.qbf.QBF_Cache;
+import solutions.Solution;
+
+/**
+ * Long-running solver service for the QBF (Quadractive Binary Function --
+ * {@link #QuadracticBinaryFunction}), over an embedded HTTP server bound to
+ * the loopback interface. Instances are kept in a {@link QBF_Cache}, so
+ * repeated solves over the same matrix neither read nor preprocess it again
+ * and run on an already warmed-up JVM. The endpoints are:
+ *
+ * - GET /solve?instance=ID&amp;budget=MILLIS&amp;seed=SEED[&amp;tenure=T]
+ * runs a {@link TS_QBF} over the instance file ID for at most budget
+ * milliseconds (capped by the maximum budget of the service) and answers
+ * with the best solution found, or with status 400 if the budget is not
+ * positive or the tenure is lower than one;
+ *
+ * - GET /stats answers with the cache and executor usage.
+ *
+ * The request thread only checks the parameters: the instance is fetched
+ * from the cache and searched by a bounded executor, so when all solver
+ * threads are busy and the queue is full, a request is rejected with status
+ * 503 before it reads any file. A search which overruns its budget is
+ * cancelled, so it frees its solver thread at its next iteration.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class QBF_Service {
+
+	/**
+	 * The default Tabu tenure.
+	 */
+	private static final int TENURE = 20;
+
+	/**
+	 * The extra time, in milliseconds, a request waits for its solve after the
+	 * budget, before being answered with a timeout.
+	 */
+	private static final long GRACE = 5000;
+
+	/**
+	 * The instance cache.
+	 */
+	protected final QBF_Cache cache;
+
+	/**
+	 * The executor of the solves.
+	 */
+	protected final ThreadPoolExecutor solvers;
+
+	/**
+	 * The maximum time budget of a solve, in milliseconds.
+	 */
+	protected final Long maxBudget;
+
+	/**
+	 * The HTTP server.
+	 */
+	private final HttpServer server;
+
+	/**
+	 * Constructor for the QBF_Service class. The service starts when
+	 * {@link #start()} is called.
+	 *
+	 * @param port
+	 *            The port to listen to, or 0 for any free port.
+	 * @param cache
+	 *            The instance cache.
+	 * @param threads
+	 *            The number of solves run at the same time.
+	 * @param queue
+	 *            The number of solves which may wait for a thread.
+	 * @param maxBudget
+	 *            The maximum time budget of a solve, in milliseconds.
+	 * @throws IOException
+	 *             If the server cannot be bound.
+	 */
+	public QBF_Service(int port, QBF_Cache cache, Integer threads, Integer queue, Long maxBudget) throws IOException {
+		this.cache = cache;
+		this.maxBudget = maxBudget;
+		this.solvers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queue), new ThreadPoolExecutor.AbortPolicy());
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext("/solve", this::handleSolve);
+		this.server.createContext("/stats", this::handleStats);
+		/* one handler thread per solve which may be running or queued */
+		this.server.setExecutor(Executors.newFixedThreadPool(threads + queue + 1));
+	}
+
+	/**
+	 * Starts the service.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops the service, interrupting no running solve but waiting for none.
+	 */
+	public void stop() {
+		server.stop(0);
+		solvers.shutdown();
+	}
+
+	/**
+	 * Gives the port the service listens to.
+	 *
+	 * @return The port.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Solves an instance of the cache.
+	 *
+	 * @param instance
+	 *            The instance identifier.
+	 * @param budget
+	 *            The time budget, in milliseconds.
+	 * @param seed
+	 *            The seed of the search.
+	 * @param tenure
+	 *            The Tabu tenure.
+	 * @return The best solution found, in the original variables.
+	 * @throws IOException
+	 *             If the instance cannot be read.
+	 */
+	public Solution<Integer> solve(String instance, Long budget, Long seed, Integer tenure) throws IOException {
+		return prepare(instance, budget, seed, tenure).solve();
+	}
+
+	/**
+	 * Prepares a search over an instance of the cache, which shares the
+	 * reduction, the couplings, the penalty scale and the lower bound of the
+	 * cached entry. The bound is computed once per entry, in background (see
+	 * {@link QBF_Cache.Entry#getLowerBound()}): the search neither starts a
+	 * thread of its own nor waits for it, and takes the bound when it is
+	 * known, so the first search over an instance still gets its whole
+	 * budget.
+	 *
+	 * @param instance
+	 *            The instance identifier.
+	 * @param budget
+	 *            The time budget, in milliseconds.
+	 * @param seed
+	 *            The seed of the search.
+	 * @param tenure
+	 *            The Tabu tenure.
+	 * @return The search, not started.
+	 * @throws IOException
+	 *             If the instance cannot be read.
+	 * @throws IllegalArgumentException
+	 *             If the budget is not positive or the tenure is lower than
+	 *             one.
+	 */
+	protected TS_QBF prepare(String instance, Long budget, Long seed, Integer tenure) throws IOException {
+
+		checkParameters(budget, tenure);
+		QBF_Cache.Entry entry = cache.get(instance);
+		TS_QBF ts = new TS_QBF(tenure, Integer.MAX_VALUE, entry.reduction, entry.penalty);
+		CompletableFuture<Double> bound = entry.getLowerBound();
+		ts.setLowerBound(bound::join, 1e-6);
+		ts.setBoundExecutor(run -> bound.whenComplete((value, e) -> run.run()));
+		ts.setSeed(seed);
+		ts.setTimeLimit(Math.min(budget, maxBudget));
+
+		return ts;
+	}
+
+	/**
+	 * Checks the parameters of a solve.
+	 *
+	 * @param budget
+	 *            The time budget, in milliseconds.
+	 * @param tenure
+	 *            The Tabu tenure.
+	 * @throws IllegalArgumentException
+	 *             If the budget is not positive or the tenure is lower than
+	 *             one.
+	 */
+	private static void checkParameters(long budget, int tenure) {
+		if (budget <= 0)
+			throw new IllegalArgumentException("budget must be positive: " + budget);
+		if (tenure < 1)
+			throw new IllegalArgumentException("tenure must be at least 1: " + tenure);
+	}
+
+	/**
+	 * Submits a solve to the bounded executor, which fetches the instance
+	 * from the cache and runs the search. Cancelling the returned future
+	 * cancels the search.
+	 *
+	 * @param instance
+	 *            The instance identifier.
+	 * @param budget
+	 *            The time budget, in milliseconds.
+	 * @param seed
+	 *            The seed of the search.
+	 * @param tenure
+	 *            The Tabu tenure.
+	 * @return The future best solution found, in the original variables.
+	 * @throws RejectedExecutionException
+	 *             If all solver threads are busy and the queue is full.
+	 */
+	private CompletableFuture<Solution<Integer>> submit(String instance, long budget, long seed, int tenure) {
+
+		CompletableFuture<Solution<Integer>> future = new CompletableFuture<Solution<Integer>>();
+		solvers.execute(() -> {
+			if (future.isDone())
+				return;
+			try {
+				List<Runnable> start = new ArrayList<Runnable>(1);
+				CompletableFuture<Solution<Integer>> search = prepare(instance, budget, seed, tenure)
+						.solveAsync(start::add);
+				future.whenComplete((sol, e) -> search.cancel(false));
+				start.get(0).run();
+				search.whenComplete((sol, e) -> {
+					if (e == null)
+						future.complete(sol);
+					else
+						future.completeExceptionally(e);
+				});
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Handles a solve request, which is run by the bounded executor.
+	 *
+	 * @param exchange
+	 *            The HTTP exchange.
+	 * @throws IOException
+	 *             If the answer cannot be sent.
+	 */
+	private void handleSolve(HttpExchange exchange) throws IOException {
+
+		Map<String, String> params = parseQuery(exchange.getRequestURI());
+		String instance = params.get("instance");
+		long budget, seed;
+		int tenure;
+		try {
+			budget = Math.min(Long.parseLong(params.getOrDefault("budget", "1000")), maxBudget);
+			seed = Long.parseLong(params.getOrDefault("seed", "0"));
+			tenure = Integer.parseInt(params.getOrDefault("tenure", String.valueOf(TENURE)));
+		} catch (NumberFormatException e) {
+			respond(exchange, 400, "{\"error\":\"invalid number: " + e.getMessage() + "\"}");
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		CompletableFuture<Solution<Integer>> future;
+		try {
+			checkParameters(budget, tenure);
+			future = submit(instance, budget, seed, tenure);
+		} catch (IllegalArgumentException e) {
+			respond(exchange, 400, "{\"error\":\"" + String.valueOf(e.getMessage()).replace('"', '\'') + "\"}");
+			return;
+		} catch (RejectedExecutionException e) {
+			respond(exchange, 503, "{\"error\":\"too many requests\"}");
+			return;
+		}
+
+		try {
+			Solution<Integer> sol = future.get(budget + GRACE, TimeUnit.MILLISECONDS);
+			long totalTime = System.currentTimeMillis() - startTime;
+			respond(exchange, 200, "{\"instance\":\"" + instance + "\",\"maxVal\":" + (-sol.cost) + ",\"size\":"
+					+ sol.size() + ",\"elements\":" + new ArrayList<Integer>(sol) + ",\"time\":"
+					+ (double) totalTime / 1000 + "}");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			int status = (cause instanceof IllegalArgumentException) ? 400 : (cause instanceof IOException) ? 404 : 500;
+			respond(exchange, status,
+					"{\"error\":\"" + String.valueOf(cause.getMessage()).replace('"', '\'') + "\"}");
+		} catch (TimeoutException e) {
+			/* stops the search at its next iteration, freeing the solver */
+			future.cancel(true);
+			respond(exchange, 504, "{\"error\":\"solve timed out\"}");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 500, "{\"error\":\"interrupted\"}");
+		}
+
+	}
+
+	/**
+	 * Handles a statistics request.
+	 *
+	 * @param exchange
+	 *            The HTTP exchange.
+	 * @throws IOException
+	 *             If the answer cannot be sent.
+	 */
+	private void handleStats(HttpExchange exchange) throws IOException {
+		respond(exchange, 200, "{\"cache\":\"" + cache.getStats() + "\",\"active\":" + solvers.getActiveCount()
+				+ ",\"queued\":" + solvers.getQueue().size() + ",\"completed\":" + solvers.getCompletedTaskCount()
+				+ "}");
+	}
+
+	/**
+	 * Parses the query parameters of a request.
+	 *
+	 * @param uri
+	 *            The request URI.
+	 * @return The parameters by name.
+	 */
+	private static Map<String, String> parseQuery(URI uri) {
+
+		Map<String, String> params = new HashMap<String, String>();
+		String query = uri.getRawQuery();
+		if (query == null)
+			return params;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0)
+				params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+		}
+
+		return params;
+	}
+
+	/**
+	 * Sends a JSON answer.
+	 *
+	 * @param exchange
+	 *            The HTTP exchange.
+	 * @param status
+	 *            The HTTP status.
+	 * @param body
+	 *            The JSON body.
+	 * @throws IOException
+	 *             If the answer cannot be sent.
+	 */
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+
+	}
+
+	/**
+	 * A main method which starts the service over the instances directory,
+	 * e.g. curl 'http://localhost:8080/solve?instance=qbf100&amp;budget=500'.
+	 *
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		AbstractTS.verbose = false;
+		QBF_Service service = new QBF_Service(port, new QBF_Cache("instances", 256L << 20), threads, 2 * threads,
+				60000L);
+		service.start();
+		System.out.println("Listening on port " + service.getPort());
+
+	}
+
+}
@@ -0,0 +1,194 @@
+package problems.qbf.solvers;
+
+import java.io.IOException;
+import java.util.Random;
+
+import metaheuristics.simulatedannealing.AbstractSA;
+import problems.qbf.QBF_Bound;
+import problems.qbf.QBF_Incremental;
+import problems.qbf.QBF_Inverse;
+import problems.qbf.QBF_Reduction;
+import solutions.Solution;
+
+/**
+ * Metaheuristic SA (Simulated Annealing) for obtaining an optimal solution to
+ * a QBF (Quadractive Binary Function -- {@link #QuadracticBinaryFunction}).
+ * Since by default this SA considers minimization problems, an inverse QBF
+ * function is adopted. The search shares the {@link QBF_Incremental}
+ * evaluator of {@link TS_QBF}: each random move is evaluated in O(1) from
+ * the gain vector, and only accepted moves update it.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class SA_QBF extends AbstractSA {
+
+	/**
+	 * The preprocessing which fixed variables of the original QBF, or null if
+	 * the search is over the original QBF.
+	 */
+	protected final QBF_Reduction reduction;
+
+	/**
+	 * Constructor for the SA_QBF class. An inverse QBF objective function is
+	 * read and reduced by {@link QBF_Reduction}.
+	 *
+	 * @param iterations
+	 *            The number of moves which the SA will draw.
+	 * @param filename
+	 *            Name of the file for which the objective function parameters
+	 *            should be read.
+	 * @throws IOException
+	 *             necessary for I/O operations.
+	 */
+	public SA_QBF(Long iterations, String filename) throws IOException {
+		this(iterations, new QBF_Reduction(new QBF_Inverse(filename)));
+	}
+
+	/**
+	 * Constructor for the SA_QBF class over a reduced QBF. A
+	 * {@link QBF_Bound} is computed in background, stopping the search as
+	 * soon as the best solution is proved optimal.
+	 *
+	 * @param iterations
+	 *            The number of moves which the SA will draw.
+	 * @param reduction
+	 *            The preprocessing which produced the inverse QBF being
+	 *            minimized.
+	 */
+	public SA_QBF(Long iterations, QBF_Reduction reduction) {
+		this(iterations, new QBF_Incremental(reduction.reduced), reduction);
+	}
+
+	private SA_QBF(Long iterations, QBF_Incremental incremental, QBF_Reduction reduction) {
+		super(incremental.ObjFunction, incremental, iterations);
+		this.reduction = reduction;
+		setLowerBound(new QBF_Bound((QBF_Inverse) incremental.ObjFunction), 1e-6);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * This createEmptySol instantiates an empty solution and it attributes a
+	 * zero cost, since it is known that a QBF solution with all variables set
+	 * to zero has also zero cost.
+	 */
+	@Override
+	public Solution<Integer> createEmptySol() {
+		Solution<Integer> sol = new Solution<Integer>();
+		sol.cost = 0.0;
+		return sol;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The bound is computed over the reduced QBF, so it is shifted by the
+	 * value of the variables fixed by the preprocessing. The gap needs no
+	 * conversion, since both the best cost and the bound are shifted alike.
+	 */
+	@Override
+	public Double getLowerBound() {
+		return (reduction != null) ? reduction.toOriginalCost(lowerBound) : lowerBound;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The solution is mapped back to the original variables.
+	 */
+	@Override
+	public Solution<Integer> solve() {
+
+		Solution<Integer> sol = super.solve();
+
+		return (reduction != null) ? reduction.toOriginal(sol) : sol;
+	}
+
+	/**
+	 * A main method used for testing the SA metaheuristic. After the search
+	 * over qbf100, each feature of the search is checked by a method of its
+	 * own, which throws IllegalStateException on a failure, and the SA is
+	 * compared with the TS under the same time limit.
+	 *
+	 */
+	public static void main(String[] args) throws IOException {
+
+		long startTime = System.currentTimeMillis();
+		SA_QBF sa = new SA_QBF(20000000L, "instances/qbf100");
+		Solution<Integer> bestSol = sa.solve();
+		System.out.println("maxVal = " + bestSol);
+		System.out.println("Time = " + (double) (System.currentTimeMillis() - startTime) / (double) 1000 + " seg");
+
+		checkFixedBound();
+		checkAllocation(sa);
+		compareWithTS((args.length > 0) ? Integer.parseInt(args[0]) : 2000,
+				(args.length > 1) ? Long.parseLong(args[1]) : 10000);
+
+	}
+
+	/**
+	 * Checks, over a QBF whose variables are all fixed by the preprocessing,
+	 * that the bound is given in the space of the returned cost.
+	 */
+	private static void checkFixedBound() {
+
+		SA_QBF sa = new SA_QBF(1000L, QBF_Fixtures.fixedReduction());
+		QBF_Fixtures.checkFixedBound(sa, sa.solve());
+
+	}
+
+	/**
+	 * Checks that the moves do not allocate memory (see
+	 * {@link QBF_Fixtures#checkAllocation}).
+	 *
+	 * @param sa
+	 *            A search which has already been run.
+	 */
+	private static void checkAllocation(SA_QBF sa) {
+
+		verbose = false;
+		sa.setLowerBound(null, 0.0);
+		QBF_Fixtures.checkAllocation("move", moves -> {
+			sa.iterations = moves;
+			sa.solve();
+		}, 5000000L);
+
+	}
+
+	/**
+	 * Runs the SA and the TS with the same time limit over a random dense
+	 * instance.
+	 *
+	 * @param n
+	 *            The number of variables.
+	 * @param millis
+	 *            The time limit of each search, in milliseconds.
+	 */
+	private static void compareWithTS(int n, long millis) {
+
+		Random rng = new Random(0);
+		Double[][] A = new Double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++)
+				A[i][j] = (j >= i) ? (double) (rng.nextInt(21) - 10) : 0.0;
+		}
+		QBF_Inverse qbf = new QBF_Inverse(A);
+
+		SA_QBF sa = new SA_QBF(Long.MAX_VALUE, new QBF_Reduction(qbf));
+		sa.setTimeLimit(millis);
+		long startTime = System.currentTimeMillis();
+		Solution<Integer> bestSol = sa.solve();
+		System.out.println("SA maxVal = " + -bestSol.cost + ", moves = " + sa.currentIteration + ", Time = "
+				+ (double) (System.currentTimeMillis() - startTime) / (double) 1000 + " seg");
+
+		TS_QBF.verbose = false;
+		TS_QBF ts = new TS_QBF(20, Integer.MAX_VALUE, new QBF_Reduction(qbf));
+		ts.setTimeLimit(millis);
+		startTime = System.currentTimeMillis();
+		bestSol = ts.solve();
+		System.out.println("TS maxVal = " + -bestSol.cost + ", Time = "
+				+ (double) (System.currentTimeMillis() - startTime) / (double) 1000 + " seg");
+
+	}
+
+}
@@ -1,11 +1,26 @@
 package problems.qbf.solvers;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import metaheuristics.tabusearch.AbstractTS;
+import metaheuristics.tabusearch.AbstractIntTS;
+import problems.qbf.QBF;
+import problems.qbf.QBF_Bound;
+import problems.qbf.QBF_Incremental;
 import problems.qbf.QBF_Inverse;
+import problems.qbf.QBF_Reduction;
+import problems.qbf.QBF_Reordering;
+import problems.qbf.QBF_Sparse;
+import problems.qbf.QBF_SparseIncremental;
 import solutions.Solution;
 
 
@@ -14,17 +29,115 @@ import solutions.Solution;
  * Metaheuristic TS (Tabu Search) for obtaining an optimal solution to a QBF
  * (Quadractive Binary Function -- {@link #QuadracticBinaryFunction}).
  * Since by default this TS considers minimization problems, an inverse QBF
- *  function is adopted.
+ *  function is adopted. The search works over a {@link QBF_Incremental}
+ *  evaluator, so that each iteration evaluates every move in O(1) and
+ *  performs it in O(n), without allocating memory, or over a
+ *  {@link QBF_SparseIncremental} for a sparse QBF too large for a dense
+ *  matrix.
  * 
  * @author ccavellucci, fusberti
  */
-public class TS_QBF extends AbstractTS<Integer> {
-	
-	private final Integer fake = new Integer(-1);
+public class TS_QBF extends AbstractIntTS {
+
+	/**
+	 * The incremental evaluator of the inverse QBF, which keeps the incumbent
+	 * solution and its gain vector, or null for a search over a
+	 * {@link QBF_Sparse}, whose incremental evaluator is only known as the
+	 * {@link #evaluator}.
+	 */
+	protected final QBF_Incremental incremental;
+
+	/**
+	 * Buffers of the unselected and selected variables of the incumbent
+	 * solution, filled at each neighborhood move.
+	 */
+	protected int[] unselected, selected;
+
+	/**
+	 * Long-term (frequency based) memory: the number of iterations each
+	 * variable has spent in the incumbent solution, not counting its current
+	 * stay.
+	 */
+	protected int[] residence;
+
+	/**
+	 * The iteration in which each variable last entered the incumbent
+	 * solution.
+	 */
+	protected int[] enteredAt;
+
+	/**
+	 * The number of neighborhood moves performed so far.
+	 */
+	protected int iteration;
+
+	/**
+	 * The last iteration in which the best solution was improved (or in which
+	 * a diversification phase was started).
+	 */
+	protected int lastImprovement;
+
+	/**
+	 * The diversification phase is active while {@link #iteration} is lower
+	 * than this value.
+	 */
+	protected int diversifyUntil;
+
+	/**
+	 * The number of iterations without improving the best solution after
+	 * which a diversification phase is started.
+	 */
+	protected Integer stagnation;
+
+	/**
+	 * The number of iterations a diversification phase lasts.
+	 */
+	protected Integer diversification;
+
+	/**
+	 * The weight of the frequency penalty applied to moves during a
+	 * diversification phase.
+	 */
+	protected Double penalty;
+
+	/**
+	 * The preprocessing which fixed variables of the original QBF, or null if
+	 * the search is over the original QBF.
+	 */
+	protected final QBF_Reduction reduction;
+
+	/**
+	 * The bandwidth-reducing reordering of the variables of the (reduced) QBF,
+	 * or null if the variables are searched in their original order.
+	 */
+	protected final QBF_Reordering reordering;
+
+	/**
+	 * The solution of the original QBF the search starts from, or null if it
+	 * starts from the constructive heuristic.
+	 */
+	protected Solution<Integer> initialSolution;
+
+	/**
+	 * The maximum length of an ejection chain, or zero if the neighborhood
+	 * of single flips and exchanges is used instead.
+	 */
+	protected Integer chainDepth = 0;
+
+	/**
+	 * The variables flipped by the ejection chain being built, and whether
+	 * each variable is in it.
+	 */
+	private int[] chain;
+	private boolean[] inChain;
 
 	/**
 	 * Constructor for the TS_QBF class. An inverse QBF objective function is
-	 * passed as argument for the superclass constructor.
+	 * read and reduced by {@link QBF_Reduction}, and the reduced QBF is passed
+	 * as argument for the superclass constructor. The diversification
+	 * is started after 50*tenure iterations without improvement and lasts
+	 * 5*tenure iterations, with a penalty weight equal to the mean absolute
+	 * row sum of the coefficient matrix.
 	 * 
 	 * @param tenure
 	 *            The Tabu tenure parameter.
@@ -37,74 +150,555 @@ public class TS_QBF extends AbstractTS<Integer> {
 	 *             necessary for I/O operations.
 	 */
 	public TS_QBF(Integer tenure, Integer iterations, String filename) throws IOException {
-		super(new QBF_Inverse(filename), tenure, iterations);
+		this(tenure, iterations, filename, 50 * tenure, 5 * tenure, null);
+	}
+
+	/**
+	 * Constructor for the TS_QBF class with explicit diversification
+	 * parameters. The QBF read is reduced by {@link QBF_Reduction}.
+	 * 
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param filename
+	 *            Name of the file for which the objective function parameters
+	 *            should be read.
+	 * @param stagnation
+	 *            The number of iterations without improvement after which a
+	 *            diversification phase is started.
+	 * @param diversification
+	 *            The number of iterations a diversification phase lasts.
+	 * @param penalty
+	 *            The weight of the frequency penalty, or null for the mean
+	 *            absolute row sum of the coefficient matrix.
+	 * @throws IOException
+	 *             necessary for I/O operations.
+	 */
+	public TS_QBF(Integer tenure, Integer iterations, String filename, Integer stagnation, Integer diversification,
+			Double penalty) throws IOException {
+		this(tenure, iterations, new QBF_Reduction(new QBF_Inverse(filename)), false, stagnation, diversification,
+				penalty);
+	}
+
+	/**
+	 * Constructor for the TS_QBF class with an optional reordering stage. The
+	 * QBF read is reduced by {@link QBF_Reduction} and, if requested, its
+	 * variables are reordered by {@link QBF_Reordering}, so that the gain
+	 * updates of sparse or banded instances walk a narrow band of each row.
+	 * Solutions are always given in the original variables.
+	 * 
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param filename
+	 *            Name of the file for which the objective function parameters
+	 *            should be read.
+	 * @param reorder
+	 *            Whether the variables are reordered.
+	 * @throws IOException
+	 *             necessary for I/O operations.
+	 */
+	public TS_QBF(Integer tenure, Integer iterations, String filename, Boolean reorder) throws IOException {
+		this(tenure, iterations, new QBF_Reduction(new QBF_Inverse(filename)), reorder, 50 * tenure, 5 * tenure,
+				null);
+	}
+
+	/**
+	 * Constructor for the TS_QBF class over a given inverse QBF, without
+	 * preprocessing.
+	 * 
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param objFunction
+	 *            The inverse QBF being minimized.
+	 * @param stagnation
+	 *            The number of iterations without improvement after which a
+	 *            diversification phase is started.
+	 * @param diversification
+	 *            The number of iterations a diversification phase lasts.
+	 * @param penalty
+	 *            The weight of the frequency penalty, or null for the mean
+	 *            absolute row sum of the coefficient matrix.
+	 */
+	public TS_QBF(Integer tenure, Integer iterations, QBF_Inverse objFunction, Integer stagnation,
+			Integer diversification, Double penalty) {
+		this(tenure, iterations, new QBF_Incremental(objFunction), null, null, stagnation, diversification,
+				penalty);
+	}
+
+	/**
+	 * Constructor for the TS_QBF class over a QBF already reduced by
+	 * {@link QBF_Reduction}, with the default diversification parameters.
+	 * Unless a coefficient is updated, the reduction is only read, so it can
+	 * be shared by many searches.
+	 * 
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param reduction
+	 *            The reduction of an inverse QBF.
+	 */
+	public TS_QBF(Integer tenure, Integer iterations, QBF_Reduction reduction) {
+		this(tenure, iterations, reduction, false, 50 * tenure, 5 * tenure, null);
+	}
+
+	/**
+	 * Constructor for the TS_QBF class over a QBF already reduced by
+	 * {@link QBF_Reduction}, with a given weight of the frequency penalty,
+	 * so that searches sharing the reduction do not compute it again.
+	 * 
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param reduction
+	 *            The reduction of an inverse QBF.
+	 * @param penalty
+	 *            The weight of the frequency penalty.
+	 */
+	public TS_QBF(Integer tenure, Integer iterations, QBF_Reduction reduction, Double penalty) {
+		this(tenure, iterations, reduction, false, 50 * tenure, 5 * tenure, penalty);
 	}
 
-	/* (non-Javadoc)
-	 * @see metaheuristics.tabusearch.AbstractTS#makeCL()
+	/**
+	 * Constructor for the TS_QBF class over a reduced QBF, optionally
+	 * reordered.
+	 */
+	private TS_QBF(Integer tenure, Integer iterations, QBF_Reduction reduction, Boolean reorder, Integer stagnation,
+			Integer diversification, Double penalty) {
+		this(tenure, iterations, reduction, reorder ? new QBF_Reordering(reduction.reduced) : null, stagnation,
+				diversification, penalty);
+		if (verbose)
+			System.out.println("Preprocessing fixed " + reduction.getFixedCount() + " of "
+					+ reduction.original.getDomainSize() + " variables"
+					+ (reordering != null ? ", reordered bandwidth " + QBF_Reordering.bandwidth(reordering.original)
+							+ " -> " + QBF_Reordering.bandwidth(reordering.reordered) : ""));
+	}
+
+	/**
+	 * Constructor for the TS_QBF class over a reduced QBF and its reordering.
+	 */
+	private TS_QBF(Integer tenure, Integer iterations, QBF_Reduction reduction, QBF_Reordering reordering,
+			Integer stagnation, Integer diversification, Double penalty) {
+		this(tenure, iterations,
+				new QBF_Incremental((reordering != null) ? reordering.reordered : reduction.reduced), reduction,
+				reordering, stagnation, diversification, penalty);
+	}
+
+	/**
+	 * Constructor for the TS_QBF class, to which all other constructors
+	 * delegate. A {@link QBF_Bound} is computed in background, stopping the
+	 * search as soon as the best solution is proved optimal.
+	 * 
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param incremental
+	 *            The incremental evaluator of the inverse QBF being minimized.
+	 * @param reduction
+	 *            The preprocessing which produced the QBF, or null.
+	 * @param reordering
+	 *            The reordering of the (reduced) QBF which produced the QBF,
+	 *            or null.
+	 * @param stagnation
+	 *            The number of iterations without improvement after which a
+	 *            diversification phase is started.
+	 * @param diversification
+	 *            The number of iterations a diversification phase lasts.
+	 * @param penalty
+	 *            The weight of the frequency penalty, or null for the mean
+	 *            absolute row sum of the coefficient matrix.
+	 */
+	protected TS_QBF(Integer tenure, Integer iterations, QBF_Incremental incremental, QBF_Reduction reduction,
+			QBF_Reordering reordering, Integer stagnation, Integer diversification, Double penalty) {
+		super(incremental.ObjFunction, incremental, tenure, iterations);
+		QBF_Inverse objFunction = (QBF_Inverse) incremental.ObjFunction;
+		this.incremental = incremental;
+		this.unselected = new int[objFunction.getDomainSize()];
+		this.selected = new int[objFunction.getDomainSize()];
+		this.reduction = reduction;
+		this.reordering = reordering;
+		this.stagnation = stagnation;
+		this.diversification = diversification;
+		this.penalty = (penalty != null) ? penalty : objFunction.meanAbsoluteRowSum();
+		setLowerBound(new QBF_Bound(objFunction), 1e-6);
+	}
+
+	/**
+	 * Constructor for the TS_QBF class over a sparse inverse QBF, for
+	 * instances too large for a dense matrix. The search is the same, over a
+	 * {@link QBF_SparseIncremental}, but no lower bound is computed, and it
+	 * can neither be checkpointed nor have its coefficients updated.
+	 * 
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param objFunction
+	 *            The sparse inverse QBF being minimized.
+	 * @param stagnation
+	 *            The number of iterations without improvement after which a
+	 *            diversification phase is started.
+	 * @param diversification
+	 *            The number of iterations a diversification phase lasts.
+	 * @param penalty
+	 *            The weight of the frequency penalty, or null for the mean
+	 *            absolute row sum of the matrix of couplings.
+	 */
+	public TS_QBF(Integer tenure, Integer iterations, QBF_Sparse objFunction, Integer stagnation,
+			Integer diversification, Double penalty) {
+		super(objFunction, new QBF_SparseIncremental(objFunction), tenure, iterations);
+		if (objFunction.sign > 0)
+			throw new IllegalArgumentException("The sparse QBF must be inverse");
+		this.incremental = null;
+		this.unselected = new int[objFunction.size];
+		this.selected = new int[objFunction.size];
+		this.reduction = null;
+		this.reordering = null;
+		this.stagnation = stagnation;
+		this.diversification = diversification;
+		this.penalty = (penalty != null) ? penalty : objFunction.meanAbsoluteRowSum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * This createEmptySol instantiates an empty solution and it attributes a
+	 * zero cost, since it is known that a QBF solution with all variables set
+	 * to zero has also zero cost.
 	 */
 	@Override
-	public ArrayList<Integer> makeCL() {
+	public Solution<Integer> createEmptySol() {
+		Solution<Integer> sol = new Solution<Integer>();
+		sol.cost = 0.0;
+		return sol;
+	}
 
-		ArrayList<Integer> _CL = new ArrayList<Integer>();
-		for (int i = 0; i < ObjFunction.getDomainSize(); i++) {
-			Integer cand = new Integer(i);
-			_CL.add(cand);
-		}
+	/**
+	 * Replaces the neighborhood of single flips and exchanges by ejection
+	 * chains (see {@link #ejectionChain()}), which suit large instances,
+	 * where a single flip makes little progress.
+	 * 
+	 * @param depth
+	 *            The maximum number of flips of a chain, or zero to use the
+	 *            neighborhood of single flips and exchanges.
+	 * @throws IllegalArgumentException
+	 *             If the depth is negative.
+	 */
+	public void setEjectionChain(Integer depth) {
+		if (depth < 0)
+			throw new IllegalArgumentException("The depth of an ejection chain must not be negative: " + depth);
+		this.chainDepth = depth;
+		this.chain = new int[depth];
+		this.inChain = new boolean[ObjFunction.getDomainSize()];
+	}
+
+	/**
+	 * Sets the solution the next {@link #solve()} starts from, instead of the
+	 * one built by the constructive heuristic, e.g. to refine a solution
+	 * projected from a coarser QBF.
+	 * 
+	 * @param sol
+	 *            A solution of the original QBF, or null to use the
+	 *            constructive heuristic.
+	 */
+	public void setInitialSolution(Solution<Integer> sol) {
+		this.initialSolution = sol;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * If an initial solution was set, it becomes the incumbent and the best
+	 * solution instead, except for its variables fixed by the preprocessing.
+	 */
+	@Override
+	public Solution<Integer> constructiveHeuristic() {
 
-		return _CL;
+		if (initialSolution == null)
+			return super.constructiveHeuristic();
+		evaluator.reset();
+		for (Integer i : initialSolution) {
+			int a = toSearched(i);
+			if (a >= 0)
+				evaluator.flip(a);
+		}
+		updateBestSol();
 
+		return null;
 	}
 
-	/* (non-Javadoc)
-	 * @see metaheuristics.tabusearch.AbstractTS#makeRCL()
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Before starting, the long-term frequency memory is cleared.
 	 */
 	@Override
-	public ArrayList<Integer> makeRCL() {
+	protected Solution<Integer> newSearch() {
 
-		ArrayList<Integer> _RCL = new ArrayList<Integer>();
+		residence = new int[ObjFunction.getDomainSize()];
+		enteredAt = new int[ObjFunction.getDomainSize()];
+		iteration = 0;
+		lastImprovement = 0;
+		diversifyUntil = 0;
 
-		return _RCL;
+		return super.newSearch();
 
 	}
-	
-	/* (non-Javadoc)
-	 * @see metaheuristics.tabusearch.AbstractTS#makeTL()
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * When the QBF was reduced by preprocessing or reordered, the best
+	 * solution is mapped back to the original variables.
 	 */
 	@Override
-	public ArrayDeque<Integer> makeTL() {
+	protected Solution<Integer> search(int first) {
+
+		Solution<Integer> sol = super.search(first);
+
+		return toOriginal(sol);
+
+	}
+
+	/**
+	 * Maps a solution of the QBF being searched back to the original
+	 * variables, undoing the reordering and then the reduction.
+	 * 
+	 * @param sol
+	 *            A solution of the QBF being searched.
+	 * @return The corresponding solution of the original QBF.
+	 */
+	protected Solution<Integer> toOriginal(Solution<Integer> sol) {
 
-		ArrayDeque<Integer> _TS = new ArrayDeque<Integer>(2*tenure);
-		for (int i=0; i<2*tenure; i++) {
-			_TS.add(fake);
+		if (reordering != null)
+			sol = reordering.toOriginal(sol);
+
+		return (reduction != null) ? reduction.toOriginal(sol) : sol;
+	}
+
+	/**
+	 * Maps a variable of the original QBF to the QBF being searched.
+	 * 
+	 * @param i
+	 *            A variable of the original QBF.
+	 * @return The variable of the QBF being searched, or -1 if it was fixed
+	 *         by the preprocessing.
+	 */
+	protected int toSearched(int i) {
+
+		int a = (reduction != null) ? reduction.toReduced(i) : i;
+
+		return (a >= 0 && reordering != null) ? reordering.position[a] : a;
+	}
+
+	/**
+	 * Changes a coefficient of the QBF in place, after a previous
+	 * {@link #solve()}, so that the search can continue warm by
+	 * {@link #reoptimize(Integer)}. The gains and costs of the incumbent and
+	 * best solutions are repaired in O(1) and the lower bound is discarded.
+	 * The indices are those of the original QBF; a coefficient of a variable
+	 * fixed by the preprocessing cannot be changed, since the fixing may no
+	 * longer hold.
+	 * 
+	 * @param i
+	 *            Row of the coefficient.
+	 * @param j
+	 *            Column of the coefficient.
+	 * @param value
+	 *            The new value of the coefficient.
+	 */
+	public void updateCoefficient(int i, int j, double value) {
+
+		if (incremental == null)
+			throw new UnsupportedOperationException("The coefficients of a sparse QBF cannot be updated");
+		QBF qbf = (reduction != null) ? reduction.original : incremental.ObjFunction;
+		if (value == qbf.A[i][j])
+			return;
+		int a = i, b = j;
+		if (reduction != null) {
+			a = reduction.toReduced(i);
+			b = reduction.toReduced(j);
+			if (a < 0 || b < 0)
+				throw new IllegalStateException("Coefficient (" + i + "," + j
+						+ ") involves a variable fixed by preprocessing; the solver must be rebuilt");
+		}
+		double delta = qbf.setCoefficient(i, j, value);
+		if (reduction != null) {
+			/* the reduced matrix keeps each coupling in its upper triangle */
+			int lo = Math.min(a, b), hi = Math.max(a, b);
+			reduction.reduced.setCoefficient(lo, hi, reduction.reduced.A[lo][hi] + delta);
+			a = lo;
+			b = hi;
+		}
+		if (reordering != null) {
+			/* and so does the reordered one */
+			int lo = Math.min(reordering.position[a], reordering.position[b]);
+			int hi = Math.max(reordering.position[a], reordering.position[b]);
+			reordering.reordered.setCoefficient(lo, hi, reordering.reordered.A[lo][hi] + delta);
+			a = lo;
+			b = hi;
 		}
 
-		return _TS;
+		incremental.repair(a, b, delta);
+		if (bestX != null && bestX[a] && bestX[b])
+			bestValue -= delta;
+		invalidateLowerBound();
 
 	}
 
-	/* (non-Javadoc)
-	 * @see metaheuristics.tabusearch.AbstractTS#updateCL()
+	/**
+	 * Changes a row of the matrix of coefficients of the QBF in place, in
+	 * O(n). See {@link #updateCoefficient(int, int, double)}.
+	 * 
+	 * @param i
+	 *            The row.
+	 * @param row
+	 *            The new values of the coefficients of the row.
+	 */
+	public void updateRow(int i, double[] row) {
+
+		for (int j = 0; j < row.length; j++)
+			updateCoefficient(i, j, row[j]);
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The bound is computed over the reduced QBF, so it is shifted by the
+	 * value of the variables fixed by the preprocessing. The gap needs no
+	 * conversion, since both the best cost and the bound are shifted alike.
+	 */
+	@Override
+	public Double getLowerBound() {
+		return (reduction != null) ? reduction.toOriginalCost(lowerBound) : lowerBound;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * When the QBF was reduced by preprocessing or reordered, the copy is
+	 * mapped back to the original variables.
 	 */
 	@Override
-	public void updateCL() {
+	protected Solution<Integer> copyBestSol() {
 
-		// do nothing
+		Solution<Integer> sol = super.copyBestSol();
+
+		return (sol != null) ? toOriginal(sol) : sol;
 
 	}
 
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * This createEmptySol instantiates an empty solution and it attributes a
-	 * zero cost, since it is known that a QBF solution with all variables set
-	 * to zero has also zero cost.
+	 * The incumbent solution with its gain vector and the long-term
+	 * frequency memory are also written.
 	 */
 	@Override
-	public Solution<Integer> createEmptySol() {
-		Solution<Integer> sol = new Solution<Integer>();
-		sol.cost = 0.0;
-		return sol;
+	protected void writeState(DataOutputStream out) throws IOException {
+
+		if (incremental == null)
+			throw new UnsupportedOperationException("A search over a sparse QBF cannot be checkpointed");
+		super.writeState(out);
+		incremental.writeState(out);
+		out.writeInt(iteration);
+		out.writeInt(lastImprovement);
+		out.writeInt(diversifyUntil);
+		for (int i = 0; i < residence.length; i++) {
+			out.writeInt(residence[i]);
+			out.writeInt(enteredAt[i]);
+		}
+		out.flush();
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The incumbent solution with its gain vector and the long-term
+	 * frequency memory are also restored.
+	 */
+	@Override
+	protected void readState(DataInputStream in) throws IOException {
+
+		if (incremental == null)
+			throw new UnsupportedOperationException("A search over a sparse QBF cannot be checkpointed");
+		super.readState(in);
+		incremental.readState(in);
+		iteration = in.readInt();
+		lastImprovement = in.readInt();
+		diversifyUntil = in.readInt();
+		residence = new int[ObjFunction.getDomainSize()];
+		enteredAt = new int[ObjFunction.getDomainSize()];
+		for (int i = 0; i < residence.length; i++) {
+			residence[i] = in.readInt();
+			enteredAt[i] = in.readInt();
+		}
+
+	}
+
+	/**
+	 * Gives the fraction of the iterations performed so far in which a
+	 * variable was selected.
+	 * 
+	 * @param i
+	 *            Index of the variable.
+	 * @param selected
+	 *            Whether the variable is currently in the incumbent solution.
+	 * @return The selection frequency of the variable.
+	 */
+	protected double frequency(int i, boolean selected) {
+
+		if (iteration == 0)
+			return 0.0;
+
+		int stay = selected ? iteration - enteredAt[i] : 0;
+		return (double) (residence[i] + stay) / iteration;
+
+	}
+
+	/**
+	 * Gives the diversification penalty of inserting a variable, which is
+	 * proportional to how often the variable has been selected. Outside a
+	 * diversification phase there is no penalty.
+	 * 
+	 * @param i
+	 *            Index of the variable being inserted.
+	 * @return The penalty added to the insertion cost.
+	 */
+	protected double insertionPenalty(int i) {
+
+		if (iteration >= diversifyUntil)
+			return 0.0;
+
+		return penalty * frequency(i, false);
+
+	}
+
+	/**
+	 * Gives the diversification penalty of removing a variable, which is
+	 * proportional to how often the variable has been left out. Outside a
+	 * diversification phase there is no penalty.
+	 * 
+	 * @param i
+	 *            Index of the variable being removed.
+	 * @return The penalty added to the removal cost.
+	 */
+	protected double removalPenalty(int i) {
+
+		if (iteration >= diversifyUntil)
+			return 0.0;
+
+		return penalty * (1.0 - frequency(i, true));
+
 	}
 
 	/**
@@ -112,42 +706,65 @@ public class TS_QBF extends AbstractTS<Integer> {
 	 * 
 	 * The local search operator developed for the QBF objective function is
 	 * composed by the neighborhood moves Insertion, Removal and 2-Exchange.
+	 * During a diversification phase, moves are ranked by their cost plus a
+	 * penalty which drives frequently selected variables out of the solution
+	 * and rarely selected ones into it. The aspiration criterion always
+	 * considers the true cost.
 	 */
 	@Override
 	public Solution<Integer> neighborhoodMove() {
 
-		Double minDeltaCost;
-		Integer bestCandIn = null, bestCandOut = null;
+		if (chainDepth > 0) {
+			ejectionChain();
+			return null;
+		}
+
+		double minDeltaCost = Double.POSITIVE_INFINITY;
+		double cost = evaluator.getCost();
+		int bestCandIn = -1, bestCandOut = -1;
+		int nIn = 0, nOut = 0;
 
-		minDeltaCost = Double.POSITIVE_INFINITY;
-		updateCL();
+		for (int i = 0; i < unselected.length; i++) {
+			if (evaluator.isSelected(i))
+				selected[nOut++] = i;
+			else
+				unselected[nIn++] = i;
+		}
 		// Evaluate insertions
-		for (Integer candIn : CL) {
-			Double deltaCost = ObjFunction.evaluateInsertionCost(candIn, incumbentSol);
-			if (!TL.contains(candIn) || incumbentSol.cost+deltaCost < bestSol.cost) {
+		for (int a = 0; a < nIn; a++) {
+			int candIn = unselected[a];
+			double deltaCost = evaluator.evaluateInsertionCost(candIn);
+			if (!isTabu(candIn) || cost + deltaCost < bestValue) {
+				deltaCost += insertionPenalty(candIn);
 				if (deltaCost < minDeltaCost) {
 					minDeltaCost = deltaCost;
 					bestCandIn = candIn;
-					bestCandOut = null;
+					bestCandOut = -1;
 				}
 			}
 		}
 		// Evaluate removals
-		for (Integer candOut : incumbentSol) {
-			Double deltaCost = ObjFunction.evaluateRemovalCost(candOut, incumbentSol);
-			if (!TL.contains(candOut) || incumbentSol.cost+deltaCost < bestSol.cost) {
+		for (int b = 0; b < nOut; b++) {
+			int candOut = selected[b];
+			double deltaCost = evaluator.evaluateRemovalCost(candOut);
+			if (!isTabu(candOut) || cost + deltaCost < bestValue) {
+				deltaCost += removalPenalty(candOut);
 				if (deltaCost < minDeltaCost) {
 					minDeltaCost = deltaCost;
-					bestCandIn = null;
+					bestCandIn = -1;
 					bestCandOut = candOut;
 				}
 			}
 		}
 		// Evaluate exchanges
-		for (Integer candIn : CL) {
-			for (Integer candOut : incumbentSol) {
-				Double deltaCost = ObjFunction.evaluateExchangeCost(candIn, candOut, incumbentSol);
-				if ((!TL.contains(candIn) && !TL.contains(candOut)) || incumbentSol.cost+deltaCost < bestSol.cost) {
+		for (int a = 0; a < nIn; a++) {
+			int candIn = unselected[a];
+			boolean tabuIn = isTabu(candIn);
+			for (int b = 0; b < nOut; b++) {
+				int candOut = selected[b];
+				double deltaCost = evaluator.evaluateExchangeCost(candIn, candOut);
+				if ((!tabuIn && !isTabu(candOut)) || cost + deltaCost < bestValue) {
+					deltaCost += insertionPenalty(candIn) + removalPenalty(candOut);
 					if (deltaCost < minDeltaCost) {
 						minDeltaCost = deltaCost;
 						bestCandIn = candIn;
@@ -157,29 +774,124 @@ public class TS_QBF extends AbstractTS<Integer> {
 			}
 		}
 		// Implement the best non-tabu move
-		TL.poll();
-		if (bestCandOut != null) {
-			incumbentSol.remove(bestCandOut);
-			CL.add(bestCandOut);
-			TL.add(bestCandOut);
-		} else {
-			TL.add(fake);
-		}
-		TL.poll();
-		if (bestCandIn != null) {
-			incumbentSol.add(bestCandIn);
-			CL.remove(bestCandIn);
-			TL.add(bestCandIn);
-		} else {
-			TL.add(fake);
-		}
-		ObjFunction.evaluate(incumbentSol);
-		
+		if (bestCandOut >= 0) {
+			evaluator.flip(bestCandOut);
+			setTabu(bestCandOut);
+			residence[bestCandOut] += iteration - enteredAt[bestCandOut];
+		}
+		if (bestCandIn >= 0) {
+			evaluator.flip(bestCandIn);
+			setTabu(bestCandIn);
+			enteredAt[bestCandIn] = iteration;
+		}
+		updateLongTermMemory();
+
 		return null;
 	}
 
 	/**
-	 * A main method used for testing the TS metaheuristic.
+	 * Compound move which builds a chain of up to {@link #chainDepth} flips,
+	 * each one the best flip (insertion or removal, with the diversification
+	 * penalties) of a variable not yet in the chain, given the previous ones.
+	 * The flips are applied tentatively, so that the gain vector gives the
+	 * cost of each next flip in O(1). The best prefix of the chain is then
+	 * committed and the remaining flips are rolled back, in
+	 * O({@link #chainDepth} * n) time. A tabu variable may only enter the
+	 * chain if the flip improves the best solution, and a prefix improving
+	 * the best solution is always preferred.
+	 */
+	protected void ejectionChain() {
+
+		double cost = evaluator.getCost();
+		double deltaSum = 0.0, penalizedSum = 0.0;
+		double bestPenalized = Double.POSITIVE_INFINITY, bestCost = bestValue;
+		int length = 0, bestLength = 0, improvingLength = 0;
+
+		while (length < chainDepth) {
+			int cand = -1;
+			double candDelta = 0.0, candPenalized = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < inChain.length; i++) {
+				if (inChain[i])
+					continue;
+				boolean sel = evaluator.isSelected(i);
+				double deltaCost = sel ? evaluator.evaluateRemovalCost(i) : evaluator.evaluateInsertionCost(i);
+				if (isTabu(i) && cost + deltaSum + deltaCost >= bestValue)
+					continue;
+				double penalized = deltaCost + (sel ? removalPenalty(i) : insertionPenalty(i));
+				if (penalized < candPenalized) {
+					candPenalized = penalized;
+					candDelta = deltaCost;
+					cand = i;
+				}
+			}
+			if (cand < 0)
+				break;
+			evaluator.flip(cand);
+			inChain[cand] = true;
+			chain[length++] = cand;
+			deltaSum += candDelta;
+			penalizedSum += candPenalized;
+			if (penalizedSum < bestPenalized) {
+				bestPenalized = penalizedSum;
+				bestLength = length;
+			}
+			if (cost + deltaSum < bestCost) {
+				bestCost = cost + deltaSum;
+				improvingLength = length;
+			}
+		}
+
+		// Roll back the flips after the best prefix and commit the others
+		int keep = (improvingLength > 0) ? improvingLength : bestLength;
+		for (int t = length - 1; t >= 0; t--) {
+			int elem = chain[t];
+			inChain[elem] = false;
+			if (t >= keep) {
+				evaluator.flip(elem);
+				continue;
+			}
+			setTabu(elem);
+			if (evaluator.isSelected(elem))
+				enteredAt[elem] = iteration;
+			else
+				residence[elem] += iteration - enteredAt[elem];
+		}
+		updateLongTermMemory();
+
+	}
+
+	/**
+	 * Tells whether the incumbent solution is better than the best one.
+	 * 
+	 * @return true if the incumbent solution improves the best one.
+	 */
+	protected boolean improves() {
+		return evaluator.getCost() < bestValue;
+	}
+
+	/**
+	 * Advances the iteration counter and starts a diversification phase once
+	 * the best solution has not been improved for {@link #stagnation}
+	 * iterations.
+	 */
+	protected void updateLongTermMemory() {
+
+		iteration++;
+		if (improves()) {
+			lastImprovement = iteration;
+		} else if (iteration - lastImprovement >= stagnation && iteration >= diversifyUntil) {
+			diversifyUntil = iteration + diversification;
+			lastImprovement = iteration;
+			if (verbose)
+				System.out.println("(Iter. " + iteration + ") Diversification started");
+		}
+
+	}
+
+	/**
+	 * A main method used for testing the TS metaheuristic. After the search
+	 * over qbf100, each feature of the search is checked by a method of its
+	 * own, which throws IllegalStateException on a failure.
 	 * 
 	 */
 	public static void main(String[] args) throws IOException {
@@ -188,10 +900,200 @@ public class TS_QBF extends AbstractTS<Integer> {
 		TS_QBF tabusearch = new TS_QBF(20, 10000, "instances/qbf100");
 		Solution<Integer> bestSol = tabusearch.solve();
 		System.out.println("maxVal = " + bestSol);
+		double lowerBound = tabusearch.awaitLowerBound(5000L);
+		double gap = tabusearch.getGap();
+		if (Double.isNaN(gap))
+			System.out.println("Gap = unknown (lower bound not available)");
+		else
+			System.out.println("Gap = " + gap + " (upper bound maxVal <= " + -lowerBound
+					+ (lowerBound != 0 ? ", " + 100 * gap / Math.abs(lowerBound) + "%" : "") + ")");
+		if (!Double.isNaN(gap) && Math.abs(bestSol.cost - gap - lowerBound) > 1e-6)
+			throw new IllegalStateException("The lower bound " + lowerBound + " and the cost " + bestSol.cost
+					+ " are not in the same space");
 		long endTime   = System.currentTimeMillis();
 		long totalTime = endTime - startTime;
 		System.out.println("Time = "+(double)totalTime/(double)1000+" seg");
 
+		checkFixedBound();
+		checkResume();
+		checkAllocation(tabusearch);
+		checkReoptimization(tabusearch);
+		checkAsync();
+		checkBestSolRequests();
+		checkEjectionChains();
+
+	}
+
+	/**
+	 * Checks, over a QBF whose variables are all fixed by the preprocessing,
+	 * that the bound is given in the space of the returned cost.
+	 */
+	private static void checkFixedBound() {
+
+		TS_QBF tabusearch = new TS_QBF(1, 10, QBF_Fixtures.fixedReduction());
+		QBF_Fixtures.checkFixedBound(tabusearch, tabusearch.solve());
+
+	}
+
+	/**
+	 * Checks that a search interrupted after a checkpoint and resumed from
+	 * it ends exactly as the uninterrupted search.
+	 */
+	private static void checkResume() throws IOException {
+
+		verbose = false;
+		Path checkpoint = Files.createTempFile("ts_qbf", ".ckpt");
+		TS_QBF uninterrupted = new TS_QBF(20, 2000, "instances/qbf100");
+		Solution<Integer> uninterruptedSol = uninterrupted.solve();
+		TS_QBF interrupted = new TS_QBF(20, 1000, "instances/qbf100");
+		interrupted.setCheckpoint(checkpoint.toString(), 500);
+		interrupted.solve();
+		TS_QBF resumed = new TS_QBF(20, 2000, "instances/qbf100");
+		Solution<Integer> resumedSol = resumed.resume(checkpoint.toString());
+		Files.delete(checkpoint);
+		System.out.println("resumed maxVal = " + -resumedSol.cost + ", uninterrupted maxVal = "
+				+ -uninterruptedSol.cost);
+		if (!resumedSol.equals(uninterruptedSol) || !resumedSol.cost.equals(uninterruptedSol.cost)
+				|| resumed.incremental.getCost() != uninterrupted.incremental.getCost()
+				|| resumed.iteration != uninterrupted.iteration)
+			throw new IllegalStateException("The resumed search diverged from the uninterrupted one");
+		verbose = true;
+
+	}
+
+	/**
+	 * Checks that the steady-state iterations of the search loop do not
+	 * allocate memory (see {@link QBF_Fixtures#checkAllocation}).
+	 * 
+	 * @param tabusearch
+	 *            A search which has already been run.
+	 */
+	private static void checkAllocation(TS_QBF tabusearch) {
+
+		verbose = false;
+		QBF_Fixtures.checkAllocation("iter", iterations -> tabusearch.reoptimize((int) iterations), 5000);
+
+	}
+
+	/**
+	 * Checks that a search continued warm after a few coefficients changed
+	 * reports the cost of its best solution in the changed QBF.
+	 * 
+	 * @param tabusearch
+	 *            A search which has already been run.
+	 */
+	private static void checkReoptimization(TS_QBF tabusearch) {
+
+		long startTime = System.currentTimeMillis();
+		tabusearch.updateCoefficient(3, 7, -10.0);
+		tabusearch.updateCoefficient(10, 10, 5.0);
+		Solution<Integer> bestSol = tabusearch.reoptimize(500);
+		System.out.println("reoptimized maxVal = " + bestSol);
+		System.out.println("Time = " + (double) (System.currentTimeMillis() - startTime) / (double) 1000 + " seg");
+		double cost = tabusearch.reduction.original.evaluate(new Solution<Integer>(bestSol));
+		if (Math.abs(bestSol.cost - cost) > 1e-6)
+			throw new IllegalStateException("The reoptimized cost " + bestSol.cost + " does not match the changed QBF: "
+					+ cost);
+
+	}
+
+	/**
+	 * Checks an asynchronous search, which is observed and then cancelled
+	 * from outside, and a cancellation which lands after submission but
+	 * before the task starts, which must stop the search at its first
+	 * iteration.
+	 */
+	private static void checkAsync() throws IOException {
+
+		TS_QBF async = new TS_QBF(20, Integer.MAX_VALUE, "instances/qbf100");
+		async.addProgressListener(sol -> System.out.println("progress maxVal = " + -sol.cost));
+		CompletableFuture<Solution<Integer>> future = async.solveAsync();
+		try {
+			Thread.sleep(500);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("current maxVal = " + -async.getBestSol().cost);
+		future.cancel(false);
+		System.out.println("cancelled = " + future.isCancelled() + ", best maxVal = " + -async.getBestSol().cost);
+
+		async = new TS_QBF(20, Integer.MAX_VALUE, "instances/qbf100");
+		async.setTimeLimit(10000L);
+		List<Runnable> submitted = new ArrayList<Runnable>();
+		future = async.solveAsync(submitted::add);
+		async.cancel();
+		long startTime = System.currentTimeMillis();
+		submitted.get(0).run();
+		if (!future.isDone() || System.currentTimeMillis() - startTime > 1000)
+			throw new IllegalStateException("Cancellation before the start of the search was lost");
+		System.out.println("cancelled before start, best maxVal = " + -future.join().cost);
+
+	}
+
+	/**
+	 * Checks that {@link #getBestSol()} neither waits for itself when called
+	 * by the search thread nor blocks after the search failed.
+	 */
+	private static void checkBestSolRequests() throws IOException {
+
+		TS_QBF reentrant = new TS_QBF(20, 1000, "instances/qbf100") {
+			@Override
+			public Solution<Integer> neighborhoodMove() {
+				Solution<Integer> sol = super.neighborhoodMove();
+				getBestSol();
+				return sol;
+			}
+		};
+		try {
+			System.out.println("reentrant maxVal = " + -reentrant.solveAsync().get(10, TimeUnit.SECONDS).cost);
+		} catch (TimeoutException e) {
+			throw new IllegalStateException("getBestSol called by the search thread did not return");
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+
+		TS_QBF failing = new TS_QBF(20, 1000, "instances/qbf100") {
+			@Override
+			public Solution<Integer> neighborhoodMove() {
+				if (currentIteration == 50)
+					throw new UnsupportedOperationException("failing move");
+				return super.neighborhoodMove();
+			}
+		};
+		failing.addProgressListener(sol -> {
+		});
+		try {
+			failing.solveAsync().get(10, TimeUnit.SECONDS);
+			throw new IllegalStateException("The failure of the search was lost");
+		} catch (ExecutionException e) {
+			if (!(e.getCause() instanceof UnsupportedOperationException))
+				throw new IllegalStateException(e);
+		} catch (InterruptedException | TimeoutException e) {
+			throw new IllegalStateException(e);
+		}
+		try {
+			Solution<Integer> sol = CompletableFuture.supplyAsync(failing::getBestSol).get(10, TimeUnit.SECONDS);
+			System.out.println("failed search, best maxVal = " + -sol.cost);
+		} catch (TimeoutException e) {
+			throw new IllegalStateException("getBestSol blocked after the search failed");
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+
+	}
+
+	/**
+	 * Runs the search over qbf100 with ejection chains of up to 10 flips.
+	 */
+	private static void checkEjectionChains() throws IOException {
+
+		long startTime = System.currentTimeMillis();
+		TS_QBF tabusearch = new TS_QBF(20, 10000, "instances/qbf100");
+		tabusearch.setEjectionChain(10);
+		Solution<Integer> bestSol = tabusearch.solve();
+		System.out.println("ejection chains maxVal = " + bestSol);
+		System.out.println("Time = " + (double) (System.currentTimeMillis() - startTime) / (double) 1000 + " seg");
+
 	}
 
 }
@@ -0,0 +1,355 @@
+package problems.qbf.solvers;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import problems.qbf.QBF_Cardinality;
+import problems.qbf.QBF_Inverse;
+import solutions.Solution;
+
+/**
+ * Metaheuristic TS (Tabu Search) for a QBF (Quadractive Binary Function --
+ * {@link #QuadracticBinaryFunction}) with a cardinality constraint, i.e.,
+ * with a lower and an upper bound on the number of selected variables (see
+ * {@link QBF_Cardinality}). The neighborhood of {@link TS_QBF} is restricted
+ * by the slack of the constraint: insertions are only generated when there is
+ * room above, removals when there is room below, and exchanges, which keep
+ * the cardinality, always. Infeasible moves are therefore never enumerated.
+ *
+ * Strategic oscillation lets the search cross the boundary of the feasible
+ * region by up to {@link #maxViolation} variables, with a penalty of
+ * {@link #oscillationWeight} per variable of violation. The weight is doubled
+ * after {@link #oscillationPeriod} consecutive infeasible iterations and
+ * halved after as many consecutive feasible ones. Only feasible solutions
+ * become the best solution. The persistency preprocessing is not applied,
+ * since it ignores the constraint.
+ *
+ * @author ccavellucci, fusberti
+ */
+public class TS_QBFC extends TS_QBF {
+
+	/**
+	 * The incremental evaluator with the cardinality constraint.
+	 */
+	protected final QBF_Cardinality constrained;
+
+	/**
+	 * The largest violation of the constraint allowed by the strategic
+	 * oscillation; zero keeps the search always feasible.
+	 */
+	protected final Integer maxViolation;
+
+	/**
+	 * The penalty per variable of violation of the constraint.
+	 */
+	protected double oscillationWeight;
+
+	/**
+	 * The number of consecutive feasible (or infeasible) iterations after
+	 * which the oscillation weight is halved (or doubled).
+	 */
+	protected final Integer oscillationPeriod;
+
+	/**
+	 * The number of consecutive iterations in the current side of the
+	 * boundary: positive if feasible, negative if infeasible.
+	 */
+	protected int streak;
+
+	/**
+	 * Constructor for the TS_QBFC class. The oscillation weight starts as the
+	 * mean absolute row sum of the coefficient matrix and is adapted every
+	 * tenure iterations.
+	 *
+	 * @param tenure
+	 *            The Tabu tenure parameter.
+	 * @param iterations
+	 *            The number of iterations which the TS will be executed.
+	 * @param objFunction
+	 *            The inverse QBF being minimized.
+	 * @param minCount
+	 *            The minimum number of selected variables.
+	 * @param maxCount
+	 *            The maximum number of selected variables.
+	 * @param maxViolation
+	 *            The largest violation of the constraint allowed by the
+	 *            strategic oscillation.
+	 */
+	public TS_QBFC(Integer tenure, Integer iterations, QBF_Inverse objFunction, Integer minCount, Integer maxCount,
+			Integer maxViolation) {
+		super(tenure, iterations, new QBF_Cardinality(objFunction, minCount, maxCount), null, null, 50 * tenure,
+				5 * tenure, null);
+		this.constrained = (QBF_Cardinality) incremental;
+		this.maxViolation = maxViolation;
+		this.oscillationPeriod = tenure;
+		this.oscillationWeight = penalty;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The empty solution is infeasible when variables must be selected, in
+	 * which case it has infinite cost.
+	 */
+	@Override
+	public Solution<Integer> createEmptySol() {
+		Solution<Integer> sol = super.createEmptySol();
+		if (constrained.minCount > 0)
+			sol.cost = Double.POSITIVE_INFINITY;
+		return sol;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The constructive heuristic inserts the best variables (ties broken
+	 * randomly) until the lower bound of the constraint is met, and then
+	 * while an insertion improves the solution and the upper bound allows it.
+	 */
+	@Override
+	public Solution<Integer> constructiveHeuristic() {
+
+		constrained.reset();
+		streak = 0;
+		oscillationWeight = penalty;
+		while (constrained.canInsert()) {
+			int best = -1, ties = 0;
+			double minCost = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < constrained.getDomainSize(); i++) {
+				if (constrained.isSelected(i))
+					continue;
+				double deltaCost = constrained.evaluateInsertionCost(i);
+				if (deltaCost < minCost) {
+					minCost = deltaCost;
+					best = i;
+					ties = 1;
+				} else if (deltaCost == minCost && rng.nextInt(++ties) == 0) {
+					best = i;
+				}
+			}
+			if (best < 0 || (constrained.isFeasible() && minCost >= 0))
+				break;
+			constrained.flip(best);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gives the penalty of the violation of the constraint for a given
+	 * number of selected variables.
+	 *
+	 * @param selectedCount
+	 *            The number of selected variables.
+	 * @return The penalty, zero if feasible.
+	 */
+	protected double violationPenalty(int selectedCount) {
+		return oscillationWeight * constrained.getViolation(selectedCount);
+	}
+
+	/**
+	 * Ejection chains are not supported under the cardinality constraint:
+	 * the flips of a chain are chosen by their gain alone and could leave
+	 * the slack of the constraint, and {@link #neighborhoodMove()} is
+	 * replaced by the constrained one, which ignores the chain depth. Depth
+	 * zero, which keeps the neighborhood of single flips and exchanges, is
+	 * accepted.
+	 *
+	 * @param depth
+	 *            The maximum number of flips of a chain, which must be zero.
+	 * @throws IllegalArgumentException
+	 *             If the depth is not zero.
+	 */
+	@Override
+	public void setEjectionChain(Integer depth) {
+		if (depth != 0)
+			throw new IllegalArgumentException(
+					"Ejection chains are not supported by " + getClass().getSimpleName() + ": depth " + depth);
+		super.setEjectionChain(depth);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Only the moves which keep the violation of the constraint within
+	 * {@link #maxViolation} are generated, and their cost includes the
+	 * variation of the violation penalty. The aspiration criterion requires
+	 * a feasible move.
+	 */
+	@Override
+	public Solution<Integer> neighborhoodMove() {
+
+		double minDeltaCost = Double.POSITIVE_INFINITY;
+		double cost = constrained.getCost();
+		int count = constrained.getSelectedCount();
+		int bestCandIn = -1, bestCandOut = -1;
+		int nIn = 0, nOut = 0;
+
+		for (int i = 0; i < unselected.length; i++) {
+			if (constrained.isSelected(i))
+				selected[nOut++] = i;
+			else
+				unselected[nIn++] = i;
+		}
+		double current = violationPenalty(count);
+		// Evaluate insertions, if the constraint has room for them
+		if (constrained.getViolation(count + 1) <= maxViolation) {
+			boolean feasible = constrained.getViolation(count + 1) == 0;
+			double shift = violationPenalty(count + 1) - current;
+			for (int a = 0; a < nIn; a++) {
+				int candIn = unselected[a];
+				double deltaCost = constrained.evaluateInsertionCost(candIn);
+				if (!isTabu(candIn) || (feasible && cost + deltaCost < bestValue)) {
+					deltaCost += shift + insertionPenalty(candIn);
+					if (deltaCost < minDeltaCost) {
+						minDeltaCost = deltaCost;
+						bestCandIn = candIn;
+						bestCandOut = -1;
+					}
+				}
+			}
+		}
+		// Evaluate removals, if the constraint has room for them
+		if (constrained.getViolation(count - 1) <= maxViolation) {
+			boolean feasible = constrained.getViolation(count - 1) == 0;
+			double shift = violationPenalty(count - 1) - current;
+			for (int b = 0; b < nOut; b++) {
+				int candOut = selected[b];
+				double deltaCost = constrained.evaluateRemovalCost(candOut);
+				if (!isTabu(candOut) || (feasible && cost + deltaCost < bestValue)) {
+					deltaCost += shift + removalPenalty(candOut);
+					if (deltaCost < minDeltaCost) {
+						minDeltaCost = deltaCost;
+						bestCandIn = -1;
+						bestCandOut = candOut;
+					}
+				}
+			}
+		}
+		// Evaluate exchanges, which keep the cardinality
+		boolean feasible = constrained.isFeasible();
+		for (int a = 0; a < nIn; a++) {
+			int candIn = unselected[a];
+			boolean tabuIn = isTabu(candIn);
+			for (int b = 0; b < nOut; b++) {
+				int candOut = selected[b];
+				double deltaCost = constrained.evaluateExchangeCost(candIn, candOut);
+				if ((!tabuIn && !isTabu(candOut)) || (feasible && cost + deltaCost < bestValue)) {
+					deltaCost += insertionPenalty(candIn) + removalPenalty(candOut);
+					if (deltaCost < minDeltaCost) {
+						minDeltaCost = deltaCost;
+						bestCandIn = candIn;
+						bestCandOut = candOut;
+					}
+				}
+			}
+		}
+		// Implement the best non-tabu move
+		if (bestCandOut >= 0) {
+			constrained.flip(bestCandOut);
+			setTabu(bestCandOut);
+			residence[bestCandOut] += iteration - enteredAt[bestCandOut];
+		}
+		if (bestCandIn >= 0) {
+			constrained.flip(bestCandIn);
+			setTabu(bestCandIn);
+			enteredAt[bestCandIn] = iteration;
+		}
+		updateOscillation();
+		updateLongTermMemory();
+
+		return null;
+	}
+
+	/**
+	 * Adapts the oscillation weight to the side of the boundary where the
+	 * search has been staying.
+	 */
+	protected void updateOscillation() {
+
+		if (maxViolation == 0)
+			return;
+		if (constrained.isFeasible())
+			streak = (streak > 0) ? streak + 1 : 1;
+		else
+			streak = (streak < 0) ? streak - 1 : -1;
+		if (streak >= oscillationPeriod) {
+			oscillationWeight /= 2;
+			streak = 0;
+		} else if (streak <= -oscillationPeriod) {
+			oscillationWeight *= 2;
+			streak = 0;
+		}
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Only a feasible solution improves the best one.
+	 */
+	@Override
+	protected boolean improves() {
+		return constrained.isFeasible() && super.improves();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Only a feasible solution replaces the best one.
+	 */
+	@Override
+	protected boolean updateBestSol() {
+		return constrained.isFeasible() && super.updateBestSol();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The state of the strategic oscillation is also written.
+	 */
+	@Override
+	protected void writeState(DataOutputStream out) throws IOException {
+
+		super.writeState(out);
+		out.writeDouble(oscillationWeight);
+		out.writeInt(streak);
+		out.flush();
+
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The state of the strategic oscillation is also restored.
+	 */
+	@Override
+	protected void readState(DataInputStream in) throws IOException {
+
+		super.readState(in);
+		oscillationWeight = in.readDouble();
+		streak = in.readInt();
+
+	}
+
+	/**
+	 * A main method used for testing the constrained TS metaheuristic.
+	 *
+	 */
+	public static void main(String[] args) throws IOException {
+
+		QBF_Inverse qbf = new QBF_Inverse("instances/qbf100");
+		verbose = false;
+		for (int maxViolation = 0; maxViolation <= 2; maxViolation += 2) {
+			long startTime = System.currentTimeMillis();
+			TS_QBFC tabusearch = new TS_QBFC(20, 10000, qbf, 20, 20, maxViolation);
+			Solution<Integer> bestSol = tabusearch.solve();
+			System.out.println("k = 20, maxViolation = " + maxViolation + ": maxVal = " + bestSol);
+			long totalTime = System.currentTimeMillis() - startTime;
+			System.out.println("Time = "+(double)totalTime/(double)1000+" seg");
+		}
+
+	}
+
+}